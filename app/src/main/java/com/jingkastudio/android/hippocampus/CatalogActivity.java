@@ -15,32 +15,38 @@
  */
 package com.jingkastudio.android.hippocampus;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseIntArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.Toast;
 
+import com.jingkastudio.android.hippocampus.data.EntryBenchmark;
 import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DaySummaryEntry;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
 import noman.weekcalendar.WeekCalendar;
 import noman.weekcalendar.listener.OnDateClickListener;
 
@@ -53,21 +59,50 @@ public class CatalogActivity extends AppCompatActivity implements
     /** Identifier for the entry data loader */
     private static final int ENTRY_LOADER = 0;
 
-    /** Adapter for the ListView */
+    /** Identifier for the loader of the summary of the selected week */
+    private static final int SUMMARY_LOADER = 1;
+
+    /** Number of rows from the end of the list at which the next page starts loading */
+    private static final int PREFETCH_DISTANCE = EntryListLoader.PAGE_SIZE / 2;
+
+    /** Format of the selected day in the title */
+    private static final DateTimeFormatter TITLE_FORMAT = DateTimeFormat.forPattern("MMM dd");
+
+    /** Adapter for the RecyclerView */
     EntryCursorAdapter mEntryCursorAdapter;
 
 
     private WeekCalendar weekCalendar;
     private String date;
 
+    /** Day currently shown in the list, encoded as a {@link DailyEntry#COLUMN_DATE} key */
+    private int mSelectedDateKey;
+
+    /** First and last day of the week of the selected day, as {@link DailyEntry#COLUMN_DATE} keys */
+    private int mWeekStartKey;
+    private int mWeekEndKey;
+
+    /** Number of entries and words of the days of the selected week, by day key */
+    private final SparseIntArray mEntryCounts = new SparseIntArray(7);
+    private final SparseIntArray mWordCounts = new SparseIntArray(7);
+
+    /** Whether the first list of entries was shown */
+    private boolean mListShown;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTimer.mark("activity_create");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
+        StartupTimer.mark("layout_inflated");
         displayWeekCalendar();
+        StartupTimer.mark("calendar_built");
 
-        date = new SimpleDateFormat("MMM dd").format(new Date());
+        DateTime today = DateTime.now();
+        date = today.toString(TITLE_FORMAT);
         this.setTitle(date);
+        mSelectedDateKey = toDateKey(today);
+        setSelectedWeek(today);
 
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
@@ -75,39 +110,59 @@ public class CatalogActivity extends AppCompatActivity implements
             @Override
             public void onClick(View view) {
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+                // File the new entry under the day selected in the calendar
+                intent.putExtra(EditorActivity.EXTRA_ENTRY_DATE, mSelectedDateKey);
                 startActivity(intent);
             }
         });
 
-        // Find the ListView which will be populated with the entry data
-        ListView entryListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the entry data
+        RecyclerView entryListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        entryListView.setLayoutManager(layoutManager);
+        entryListView.setHasFixedSize(true);
 
-        // Setup an Adapter to create a list of item for each row of entry data in the Cursor
-        mEntryCursorAdapter = new EntryCursorAdapter(this, null);
-        entryListView.setAdapter(mEntryCursorAdapter);
-
-        // Setup the item click listener
-        entryListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list of item for each row of entry data in the Cursor,
+        // and the item click listener
+        mEntryCursorAdapter = new EntryCursorAdapter(null, new EntryCursorAdapter.OnEntryClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onEntryClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
-                // Form the content URI that represents the specific pet that was clicked on,
+                // Form the content URI that represents the specific entry that was clicked on,
                 // by appending the "id" (passed as input to this method) onto the
-                // {@link EntryEntry#CONTENT_URI}.
+                // {@link DailyEntry#CONTENT_URI}.
                 Uri currentEntryUri = ContentUris.withAppendedId(DailyEntry.CONTENT_URI, id);
 
                 // Set the URI on the data field of the intent
                 intent.setData(currentEntryUri);
 
-                // Launch the {@link EditorActivity} to display the data for the current pet.
+                // Launch the {@link EditorActivity} to display the data for the current entry.
                 startActivity(intent);
             }
         });
+        entryListView.setAdapter(mEntryCursorAdapter);
+
+        // Load the next page in the background as the user scrolls near the end of the list
+        entryListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mEntryCursorAdapter.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - PREFETCH_DISTANCE) {
+                    EntryListLoader loader =
+                            (EntryListLoader) getLoaderManager().<Cursor>getLoader(ENTRY_LOADER);
+                    if (loader != null) {
+                        loader.loadNextPage();
+                    }
+                }
+            }
+        });
 
-        // Kick off the loader
+        // Kick off the loaders
         getLoaderManager().initLoader(ENTRY_LOADER, null, this);
+        getLoaderManager().initLoader(SUMMARY_LOADER, null, this);
 
     }
 
@@ -117,25 +172,124 @@ public class CatalogActivity extends AppCompatActivity implements
         weekCalendar.setOnDateClickListener(new OnDateClickListener() {
             @Override
             public void onDateClick(DateTime dateTime) {
-                DateTimeFormatter fmt = DateTimeFormat.forPattern("MMM dd");
-                date = dateTime.toString(fmt);
+                date = dateTime.toString(TITLE_FORMAT);
                 setTitle(date);
-                //TODO load data or show template
+
+                // Show the entries of the selected day
+                mSelectedDateKey = toDateKey(dateTime);
+                getLoaderManager().restartLoader(ENTRY_LOADER, null, CatalogActivity.this);
+
+                // The summary of the week is at hand, unless the day is in another week
+                if (setSelectedWeek(dateTime)) {
+                    getLoaderManager().restartLoader(SUMMARY_LOADER, null, CatalogActivity.this);
+                } else {
+                    showDaySummary();
+                }
             }
         });
     }
 
+    /**
+     * Returns the {@link DailyEntry#COLUMN_DATE} key of the given day.
+     */
+    private static int toDateKey(DateTime dateTime) {
+        return DailyEntry.toDateKey(dateTime.getYear(), dateTime.getMonthOfYear(),
+                dateTime.getDayOfMonth());
+    }
+
+    /**
+     * Selects the week, Monday to Sunday, of the given day. Returns whether it is another week
+     * than the one selected before.
+     */
+    private boolean setSelectedWeek(DateTime dateTime) {
+        int weekStartKey = toDateKey(dateTime.withDayOfWeek(DateTimeConstants.MONDAY));
+        if (weekStartKey == mWeekStartKey) {
+            return false;
+        }
+        mWeekStartKey = weekStartKey;
+        mWeekEndKey = toDateKey(dateTime.withDayOfWeek(DateTimeConstants.SUNDAY));
+        return true;
+    }
+
+    /**
+     * Shows the number of entries and words of the selected day below the title.
+     */
+    private void showDaySummary() {
+        if (getSupportActionBar() == null) {
+            return;
+        }
+        int entryCount = mEntryCounts.get(mSelectedDateKey);
+        int wordCount = mWordCounts.get(mSelectedDateKey);
+        getSupportActionBar().setSubtitle(entryCount == 0 ? getString(R.string.catalog_no_entries)
+                : getResources().getQuantityString(R.plurals.catalog_day_summary, entryCount,
+                        entryCount, wordCount));
+    }
+
     // Insert dummy data for debugging purposes only
     private void insertDummy() {
         // Create a ContentValues object where column names are the keys
         ContentValues values = new ContentValues();
         values.put(DailyEntry.COLUMN_TITLE, "What problem did I encounter today? How did I solve the problem?");
+        values.put(DailyEntry.COLUMN_DATE, mSelectedDateKey);
         values.put(DailyEntry.COLUMN_BODY, "I want to have a horizontal view that scrolls and has for example the names of the days of the week. The user scrolls horizontally. The day selected is the one in the middle ( like a spinner selection ). You can see the below image.");
 
         // Insert a new row into the provider using the ContentResolver
         Uri newUri = getContentResolver().insert(DailyEntry.CONTENT_URI, values);
     }
 
+    /**
+     * Prompt the user to confirm that they want to delete all entries.
+     */
+    private void showDeleteAllConfirmationDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.delete_all_dialog_msg);
+        builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Delete" button, so delete all entries.
+                deleteAllEntries();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Cancel" button, so dismiss the dialog.
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+
+        // Create and show the AlertDialog
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
+
+    /**
+     * Delete all entries in the database. The delete runs on the thread of the write queue and
+     * the space of the entries is reclaimed in the background, so neither blocks the UI.
+     */
+    private void deleteAllEntries() {
+        final Context context = getApplicationContext();
+        EntryWriteQueue.getInstance(this).deleteAll(new EntryWriteQueue.OnWriteCompleteListener() {
+            @Override
+            public void onWriteComplete(Uri uri, boolean success) {
+                Toast.makeText(context, success ? R.string.catalog_delete_all_successful
+                        : R.string.catalog_delete_all_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    // Run the database benchmarks on a background thread, for debugging purposes only
+    private void runBenchmarks() {
+        final Context context = getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                EntryBenchmark.runAll(context);
+            }
+        }, EntryBenchmark.LOG_TAG).start();
+        Toast.makeText(this, getString(R.string.benchmarks_started), Toast.LENGTH_SHORT).show();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
@@ -144,6 +298,14 @@ public class CatalogActivity extends AppCompatActivity implements
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        // The benchmarks fill scratch databases of 10k entries; they are for developers
+        menu.findItem(R.id.action_run_benchmarks).setVisible(BuildConfig.DEBUG);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -155,7 +317,14 @@ public class CatalogActivity extends AppCompatActivity implements
 
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
-                // Do nothing for now
+                showDeleteAllConfirmationDialog();
+                return true;
+
+            // Respond to a click on the "Run Benchmarks" menu option
+            case R.id.action_run_benchmarks:
+                if (BuildConfig.DEBUG) {
+                    runBenchmarks();
+                }
                 return true;
         }
         return super.onOptionsItemSelected(item);
@@ -164,30 +333,80 @@ public class CatalogActivity extends AppCompatActivity implements
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        if (id == SUMMARY_LOADER) {
+            // A week of the summary is at most seven tiny rows, read by the primary key
+            String[] projection = {
+                    DaySummaryEntry.COLUMN_DATE,
+                    DaySummaryEntry.COLUMN_ENTRY_COUNT,
+                    DaySummaryEntry.COLUMN_WORD_COUNT };
+            return new CursorLoader(this,
+                    DaySummaryEntry.buildRangeUri(mWeekStartKey, mWeekEndKey),
+                    projection, null, null, null);
+        }
+
         // Define a projection that specifies the columns from the table we care about.
         String[] projection = {
                 DailyEntry._ID,
                 DailyEntry.COLUMN_TITLE,
-                DailyEntry.COLUMN_BODY,
-                DailyEntry.COLUMN_TAG };
+                DailyEntry.COLUMN_PREVIEW };
 
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,
-                DailyEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
-                null);
+        // This loader will execute the ContentProvider's query method on a background thread,
+        // reading the entries of the selected day one page at a time
+        return new EntryListLoader(this,
+                DailyEntry.buildDateUri(mSelectedDateKey),
+                projection);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link EntryCursorAdapter} with this new cursor containing updated entry data
-        mEntryCursorAdapter.swapCursor(data);
+        if (loader.getId() == SUMMARY_LOADER) {
+            mEntryCounts.clear();
+            mWordCounts.clear();
+            data.moveToPosition(-1);
+            while (data.moveToNext()) {
+                mEntryCounts.put(data.getInt(0), data.getInt(1));
+                mWordCounts.put(data.getInt(0), data.getInt(2));
+            }
+            showDaySummary();
+            return;
+        }
+
+        // Update {@link EntryCursorAdapter} with this new cursor containing updated entry data,
+        // rebinding only the rows that changed since the cursor it shows now
+        mEntryCursorAdapter.swapCursor(data,
+                EntryListLoader.getDiff(data, mEntryCursorAdapter.getCursor()));
+
+        if (!mListShown) {
+            mListShown = true;
+            onFirstListShown();
+        }
+    }
+
+    /**
+     * Marks the end of the startup once the first list of entries is drawn. The system logs the
+     * time to it as "Fully drawn", next to the time to the first frame.
+     */
+    private void onFirstListShown() {
+        StartupTimer.mark("first_list_loaded");
+        findViewById(R.id.list).post(new Runnable() {
+            @Override
+            public void run() {
+                StartupTimer.finish("first_list_drawn");
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    reportFullyDrawn();
+                }
+            }
+        });
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == SUMMARY_LOADER) {
+            mEntryCounts.clear();
+            mWordCounts.clear();
+            return;
+        }
+
         // Callback called when the data needs to be deleted
         mEntryCursorAdapter.swapCursor(null);
     }
@@ -17,7 +17,9 @@ package com.jingkastudio.android.hippocampus;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -25,9 +27,12 @@ import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -36,24 +41,67 @@ import android.widget.EditText;
 import android.widget.Toast;
 
 import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DraftEntry;
 
 /**
  * Allows user to create a new entry or edit an existing one.
  */
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
+    /**
+     * Intent extra with the day a new entry is filed under, as a {@link DailyEntry#COLUMN_DATE}
+     * key. When it is missing the entry is filed under the day it is saved.
+     */
+    public static final String EXTRA_ENTRY_DATE = "entry_date";
+
     /** Identifier for the entry data loader */
     private static final int EXISTING_ENTRY_LOADER = 0;
 
+    /** Identifier for the draft loader */
+    private static final int DRAFT_LOADER = 1;
+
+    /** How long the user has to pause typing before the draft is saved, in milliseconds */
+    private static final long AUTOSAVE_DELAY_MS = 1000;
+
+    /** Keys of the instance state */
+    private static final String STATE_ENTRY_HAS_CHANGED = "entry_has_changed";
+    private static final String STATE_DRAFT_CHECKED = "draft_checked";
+
     /** Content URI for the existing entry (null if it's a new entry) */
     private Uri mCurrentEntryUri;
 
+    /** Content URI of the draft of the entry, where the unsaved text is autosaved */
+    private Uri mDraftUri;
+
+    /** Whether the draft has been looked for, and restored if there was one */
+    private boolean mDraftChecked;
+
+    /** Set while the input fields are filled in, so that doesn't count as an edit */
+    private boolean mPopulating;
+
+    /** Whether a save of the draft is scheduled */
+    private boolean mAutosavePending;
+
+    /** Handler that delays the autosave until the user pauses typing */
+    private final Handler mHandler = new Handler();
+
+    /** Saves the draft, once the user paused typing */
+    private final Runnable mAutosave = new Runnable() {
+        @Override
+        public void run() {
+            saveDraft();
+        }
+    };
+
     /** EditText field to enter the entry's name */
     private EditText mTitleEditText;
 
     /** EditText field to enter the entry's breed */
     private EditText mBodyEditText;
 
+    /** EditText field to enter the entry's tags, separated by commas */
+    private EditText mTagsEditText;
+
     /** Boolean flag that keeps track of whether the entry has been edited */
     private boolean mEntryHasChanged = false;
 
@@ -69,6 +117,55 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
     };
 
+    /**
+     * TextWatcher that (re)schedules the autosave on every edit, so a burst of typing is saved
+     * once, after the user pauses.
+     */
+    private TextWatcher mTextWatcher = new TextWatcher() {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            if (mPopulating) {
+                return;
+            }
+            mEntryHasChanged = true;
+            mHandler.removeCallbacks(mAutosave);
+            mHandler.postDelayed(mAutosave, AUTOSAVE_DELAY_MS);
+            mAutosavePending = true;
+        }
+    };
+
+    /**
+     * Callbacks of the loader of the existing entry, which reads the entry in one Bundle through
+     * the provider instead of a cursor.
+     */
+    private final LoaderManager.LoaderCallbacks<Bundle> mEntryLoaderCallbacks =
+            new LoaderManager.LoaderCallbacks<Bundle>() {
+                @Override
+                public Loader<Bundle> onCreateLoader(int id, Bundle args) {
+                    // Call the ContentProvider on a background thread
+                    return new EntryLoader(EditorActivity.this, mCurrentEntryUri);
+                }
+
+                @Override
+                public void onLoadFinished(Loader<Bundle> loader, Bundle entry) {
+                    populateEntry(entry);
+                }
+
+                @Override
+                public void onLoaderReset(Loader<Bundle> loader) {
+                    // The input fields hold copies of the entry, and maybe unsaved edits; clearing
+                    // them would count as an edit and autosave an empty draft
+                }
+            };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -78,36 +175,113 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         Intent intent = getIntent();
         mCurrentEntryUri = intent.getData();
 
+        // The unsaved text is autosaved to the draft of the entry
+        mDraftUri = DraftEntry.buildDraftUri(mCurrentEntryUri == null
+                ? DraftEntry.NEW_ENTRY_ID : ContentUris.parseId(mCurrentEntryUri));
+        if (savedInstanceState != null) {
+            mEntryHasChanged = savedInstanceState.getBoolean(STATE_ENTRY_HAS_CHANGED);
+            mDraftChecked = savedInstanceState.getBoolean(STATE_DRAFT_CHECKED);
+        }
+
         // If the intent DOES NOT contain a entry content URI, create a new entry
         if (mCurrentEntryUri == null) {
-
+            // Look for the draft of a new entry left behind last time
+            if (!mDraftChecked) {
+                getLoaderManager().initLoader(DRAFT_LOADER, null, this);
+            }
         } else {
             // Initialize a loader to rad the entry data from the database
-            getLoaderManager().initLoader(EXISTING_ENTRY_LOADER, null, this);
+            getLoaderManager().initLoader(EXISTING_ENTRY_LOADER, null, mEntryLoaderCallbacks);
         }
 
         // Find all relevant views that we will need to read user input from
         mTitleEditText = (EditText) findViewById(R.id.edit_entry_title);
         mBodyEditText = (EditText) findViewById(R.id.edit_entry_body);
+        mTagsEditText = (EditText) findViewById(R.id.edit_entry_tags);
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them.
         mTitleEditText.setOnTouchListener(mTouchListener);
         mBodyEditText.setOnTouchListener(mTouchListener);
+        mTagsEditText.setOnTouchListener(mTouchListener);
+        mTitleEditText.addTextChangedListener(mTextWatcher);
+        mBodyEditText.addTextChangedListener(mTextWatcher);
+        mTagsEditText.addTextChangedListener(mTextWatcher);
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Bundle savedInstanceState) {
+        // The input fields restore their own text, which is not an edit
+        mPopulating = true;
+        super.onRestoreInstanceState(savedInstanceState);
+        mPopulating = false;
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_ENTRY_HAS_CHANGED, mEntryHasChanged);
+        outState.putBoolean(STATE_DRAFT_CHECKED, mDraftChecked);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // The app may be killed from here on, save what the user typed right away
+        if (mAutosavePending && !isFinishing()) {
+            saveDraft();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // The draft was saved when pausing; a save still scheduled would outlive the activity
+        cancelAutosave();
+    }
+
+    /**
+     * Save the text of the input fields as the draft of the entry, in the background.
+     */
+    private void saveDraft() {
+        cancelAutosave();
+        ContentValues values = new ContentValues();
+        values.put(DraftEntry.COLUMN_TITLE, mTitleEditText.getText().toString());
+        values.put(DraftEntry.COLUMN_BODY, mBodyEditText.getText().toString());
+        values.put(DraftEntry.COLUMN_TAG, mTagsEditText.getText().toString());
+        EntryWriteQueue.getInstance(this).update(mDraftUri, values, null);
+    }
+
+    /**
+     * Drop the draft of the entry, once its text was saved or discarded.
+     */
+    private void discardDraft() {
+        cancelAutosave();
+        EntryWriteQueue.getInstance(this).delete(mDraftUri, null);
+    }
+
+    private void cancelAutosave() {
+        mHandler.removeCallbacks(mAutosave);
+        mAutosavePending = false;
     }
 
     /**
-     *  Get user input from editor and save new entry into database
+     *  Get user input from editor and save new entry into database. The entry is written in the
+     *  background by the {@link EntryWriteQueue}, which tells how it went once it is committed.
      */
     private void saveEntry() {
+        cancelAutosave();
+
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String titleString = mTitleEditText.getText().toString().trim();
         String bodyString = mBodyEditText.getText().toString().trim();
+        String tagsString = mTagsEditText.getText().toString().trim();
 
-        if (mCurrentEntryUri == null &&
-                TextUtils.isEmpty(titleString) && TextUtils.isEmpty(bodyString)) {
+        if (mCurrentEntryUri == null && TextUtils.isEmpty(titleString)
+                && TextUtils.isEmpty(bodyString) && TextUtils.isEmpty(tagsString)) {
             // No change, return early
+            discardDraft();
             return;
         }
 
@@ -116,26 +290,22 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         ContentValues values = new ContentValues();
         values.put(DailyEntry.COLUMN_TITLE, titleString);
         values.put(DailyEntry.COLUMN_BODY, bodyString);
+        values.put(DailyEntry.COLUMN_TAG, tagsString);
 
         // Determine if this is a new or existing entry
         if(mCurrentEntryUri == null) {
             // This is a new entry
-            Uri newUri = getContentResolver().insert(DailyEntry.CONTENT_URI, values);
-
-            if(newUri == null) {
-                Toast.makeText(this, getString(R.string.editor_insert_entry_failed), Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, getString(R.string.editor_insert_entry_successful), Toast.LENGTH_SHORT).show();
+            if (getIntent().hasExtra(EXTRA_ENTRY_DATE)) {
+                values.put(DailyEntry.COLUMN_DATE, getIntent().getIntExtra(EXTRA_ENTRY_DATE, 0));
             }
+            EntryWriteQueue.getInstance(this).insert(values,
+                    new ToastOnWriteComplete(this, R.string.editor_insert_entry_successful,
+                            R.string.editor_insert_entry_failed, mDraftUri));
         } else {
             // This is an existing entry
-            int rowsAffected = getContentResolver().update(mCurrentEntryUri, values, null, null);
-
-            if(rowsAffected == 0) {
-                Toast.makeText(this, getString(R.string.editor_update_entry_failed), Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, getString(R.string.editor_update_entry_successful), Toast.LENGTH_SHORT).show();
-            }
+            EntryWriteQueue.getInstance(this).update(mCurrentEntryUri, values,
+                    new ToastOnWriteComplete(this, R.string.editor_update_entry_successful,
+                            R.string.editor_update_entry_failed, mDraftUri));
         }
     }
 
@@ -180,6 +350,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                             @Override
                             public void onClick(DialogInterface dialogInterface, int i) {
                                 // User clicked "Discard" button, navigate to parent activity.
+                                discardDraft();
                                 NavUtils.navigateUpFromSameTask(EditorActivity.this);
                             }
                         };
@@ -209,6 +380,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                     @Override
                     public void onClick(DialogInterface dialogInterface, int i) {
                         // User clicked "Discard" button, close the current activity.
+                        discardDraft();
                         finish();
                     }
                 };
@@ -217,52 +389,72 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         showUnsavedChangesDialog(discardButtonClickListener);
     }
 
+    /**
+     * Fill the input fields with the saved entry, then look for a draft of it.
+     */
+    private void populateEntry(Bundle entry) {
+        // Once the draft was looked for the input fields hold the user's text, don't overwrite it
+        if (mDraftChecked) {
+            return;
+        }
+
+        // Bail early if there is no such entry
+        if (entry == null) {
+            return;
+        }
+
+        // Update the views on the screen with the values from the database
+        mPopulating = true;
+        mTitleEditText.setText(entry.getString(DailyEntry.COLUMN_TITLE));
+        mBodyEditText.setText(entry.getString(DailyEntry.COLUMN_BODY));
+        mTagsEditText.setText(entry.getString(DailyEntry.COLUMN_TAG));
+        mPopulating = false;
+
+        // Now that the saved text is shown, look for unsaved text left behind last time
+        getLoaderManager().initLoader(DRAFT_LOADER, null, this);
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         String[] projection = {
-                DailyEntry._ID,
-                DailyEntry.COLUMN_TITLE,
-                DailyEntry.COLUMN_BODY,
-                DailyEntry.COLUMN_TAG };
-
-        // Execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,
-                mCurrentEntryUri,
-                projection,
-                null,
-                null,
-                null);
+                DraftEntry._ID,
+                DraftEntry.COLUMN_TITLE,
+                DraftEntry.COLUMN_BODY,
+                DraftEntry.COLUMN_TAG };
+        return new CursorLoader(this, mDraftUri, projection, null, null, null);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        // Bail early if the cursor is null or there is less than 1 row in the cursor
-        if(cursor == null || cursor.getCount() < 1) {
+        restoreDraft(cursor);
+    }
+
+    /**
+     * Fill the input fields with the draft in the cursor, if there is one. That happens when the
+     * app was killed before the user saved or discarded their changes.
+     */
+    private void restoreDraft(Cursor cursor) {
+        if (mDraftChecked) {
             return;
         }
+        mDraftChecked = true;
 
-        // Proceed with moving to the first row of the cursor and reading data from it
-        if(cursor.moveToFirst()) {
-            int titleColumnIndex = cursor.getColumnIndex(DailyEntry.COLUMN_TITLE);
-            int bodyColumnIndex = cursor.getColumnIndex(DailyEntry.COLUMN_BODY);
-            int tagColumnIndex = cursor.getColumnIndex(DailyEntry.COLUMN_TAG);
+        if (cursor != null && cursor.moveToFirst()) {
+            mPopulating = true;
+            mTitleEditText.setText(cursor.getString(cursor.getColumnIndex(DraftEntry.COLUMN_TITLE)));
+            mBodyEditText.setText(cursor.getString(cursor.getColumnIndex(DraftEntry.COLUMN_BODY)));
+            mTagsEditText.setText(cursor.getString(cursor.getColumnIndex(DraftEntry.COLUMN_TAG)));
+            mPopulating = false;
 
-            // Extract out the value from the Cursor for the given column index
-            String title = cursor.getString(titleColumnIndex);
-            String body = cursor.getString(bodyColumnIndex);
-            String tag = cursor.getString(tagColumnIndex); // TODO to be used later
-
-            // Update the views on the screen with the values from the database
-            mTitleEditText.setText(title);
-            mBodyEditText.setText(body);
+            // The draft differs from the saved entry, so leaving asks to save or discard it
+            mEntryHasChanged = true;
+            Toast.makeText(this, R.string.editor_draft_restored, Toast.LENGTH_SHORT).show();
         }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        // If the loader is invalidated, clear out all the data from the input fields
-        mTitleEditText.setText("");
-        mBodyEditText.setText("");
+        // The draft is only read once
     }
 
     /**
@@ -329,24 +521,45 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private void deleteEntry() {
         // Only perform the delete if this is an existing entry.
         if (mCurrentEntryUri != null) {
-            // Call the ContentResolver to delete the entry at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentEntryUri
-            // content URI already identifies the entry that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentEntryUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_entry_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_entry_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Queue the delete of the entry at the given content URI. A toast message tells
+            // whether or not the delete was successful once it is committed.
+            EntryWriteQueue.getInstance(this).delete(mCurrentEntryUri,
+                    new ToastOnWriteComplete(this, R.string.editor_delete_entry_successful,
+                            R.string.editor_delete_entry_failed, null));
         }
+        discardDraft();
 
         // Close the activity
         finish();
     }
-}
\ No newline at end of file
+
+    /**
+     * Shows a toast once a write is committed, telling whether it was successful, and drops the
+     * draft of the entry once its text is safely saved. It only holds on to the application
+     * context, as the editor is usually closed by then.
+     */
+    private static class ToastOnWriteComplete implements EntryWriteQueue.OnWriteCompleteListener {
+
+        private final Context mContext;
+        private final int mSuccessMessage;
+        private final int mFailureMessage;
+        private final Uri mDraftUri;
+
+        ToastOnWriteComplete(Context context, int successMessage, int failureMessage,
+                             Uri draftUri) {
+            mContext = context.getApplicationContext();
+            mSuccessMessage = successMessage;
+            mFailureMessage = failureMessage;
+            mDraftUri = draftUri;
+        }
+
+        @Override
+        public void onWriteComplete(Uri uri, boolean success) {
+            if (success && mDraftUri != null) {
+                EntryWriteQueue.getInstance(mContext).delete(mDraftUri, null);
+            }
+            Toast.makeText(mContext, success ? mSuccessMessage : mFailureMessage,
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+}
@@ -1,74 +1,199 @@
 package com.jingkastudio.android.hippocampus;
 
-import android.content.Context;
 import android.database.Cursor;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 
 import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
 
 /**
- * {@link EntryCursorAdapter} is an adapter for a list or grid view
+ * {@link EntryCursorAdapter} is an adapter for a {@link RecyclerView}
  * that uses a {@link Cursor} of entry data as its data source. This adapter knows
  * how to create list items for each row of entry data in the {@link Cursor}.
  */
-public class EntryCursorAdapter extends CursorAdapter {
+public class EntryCursorAdapter extends RecyclerView.Adapter<EntryCursorAdapter.EntryViewHolder> {
+
+    /**
+     * Interface definition for a callback to be invoked when an entry in the list is clicked.
+     */
+    public interface OnEntryClickListener {
+
+        /**
+         * Called when an entry has been clicked.
+         *
+         * @param id The row id of the entry that was clicked.
+         */
+        void onEntryClick(long id);
+    }
+
+    /** Listener notified when an entry is clicked */
+    private final OnEntryClickListener mOnEntryClickListener;
+
+    /** The cursor from which to get the data, or null if there is no data */
+    private Cursor mCursor;
+
+    /** Column indices of the current cursor, resolved once per cursor swap */
+    private int mIdColumnIndex;
+    private int mTitleColumnIndex;
+    private int mPreviewColumnIndex;
 
     /**
      * Constructs a new {@link EntryCursorAdapter}.
      *
-     * @param context The context
-     * @param c       The cursor from which to get the data.
+     * @param c        The cursor from which to get the data.
+     * @param listener The listener notified when an entry is clicked.
+     */
+    public EntryCursorAdapter(Cursor c, OnEntryClickListener listener) {
+        mOnEntryClickListener = listener;
+        // Row ids never change, so the list can keep track of rows across cursor swaps
+        setHasStableIds(true);
+        swapCursor(c);
+    }
+
+    /**
+     * Swap in a new Cursor, returning the old Cursor. The returned old Cursor is not closed.
+     *
+     * @param newCursor The new cursor to be used.
+     * @return Returns the previously set Cursor, or null if there was not one.
+     */
+    public Cursor swapCursor(Cursor newCursor) {
+        return swapCursor(newCursor, null);
+    }
+
+    /**
+     * Swap in a new Cursor, returning the old Cursor. Only the rows that differ between the
+     * cursors are rebound. The returned old Cursor is not closed.
+     *
+     * @param newCursor The new cursor to be used.
+     * @param diff      The difference between the old and the new cursor, or null to rebind
+     *                  all the rows.
+     * @return Returns the previously set Cursor, or null if there was not one.
+     */
+    public Cursor swapCursor(Cursor newCursor, DiffUtil.DiffResult diff) {
+        Cursor oldCursor = mCursor;
+        mCursor = newCursor;
+
+        // Find the columns of entry attributes that we're interested in
+        if (newCursor != null) {
+            mIdColumnIndex = newCursor.getColumnIndexOrThrow(DailyEntry._ID);
+            mTitleColumnIndex = newCursor.getColumnIndexOrThrow(DailyEntry.COLUMN_TITLE);
+            mPreviewColumnIndex = newCursor.getColumnIndexOrThrow(DailyEntry.COLUMN_PREVIEW);
+        }
+
+        if (diff == null) {
+            notifyDataSetChanged();
+        } else {
+            diff.dispatchUpdatesTo(this);
+        }
+        return oldCursor;
+    }
+
+    /**
+     * Returns the cursor the data is currently taken from, or null if there is none.
      */
-    public EntryCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
+    public Cursor getCursor() {
+        return mCursor;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mCursor == null ? 0 : mCursor.getCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        mCursor.moveToPosition(position);
+        return mCursor.getLong(mIdColumnIndex);
     }
 
     /**
-     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     * Makes a new blank list item view, and a view holder that keeps references to its views.
+     * No data is set (or bound) to the views yet.
      *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * @param parent   The parent to which the new view is attached to
+     * @param viewType The view type of the new view
+     * @return the newly created view holder.
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public EntryViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        return new EntryViewHolder(view);
     }
 
     /**
-     * This method binds the entry data (in the current row pointed to by cursor) to the given
-     * list item layout. For example, the title for the current entry can be set on the name TextView
-     * in the list item layout.
+     * This method binds the entry data (in the row at the given position of the cursor) to the
+     * views of the given view holder. For example, the title for the current entry can be set on
+     * the title TextView in the list item layout.
      *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * @param holder   View holder returned earlier by onCreateViewHolder() method
+     * @param position Position of the row in the cursor
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        // Find individual views that we want to modify in the list item layout
-        TextView titleTextVIew = (TextView) view.findViewById(R.id.title);
-        TextView bodyTextVIew = (TextView) view.findViewById(R.id.body);
+    public void onBindViewHolder(EntryViewHolder holder, int position) {
+        // Trace the bind, so the time it takes per frame shows up in systrace
+        TraceCompat.beginSection("EntryCursorAdapter#bind");
+        try {
+            mCursor.moveToPosition(position);
 
-        // Find the columns of entry attributes that we're interested in
-        int titleColumnIndex = cursor.getColumnIndex(DailyEntry.COLUMN_TITLE);
-        int bodyColumnIndex = cursor.getColumnIndex(DailyEntry.COLUMN_BODY);
+            // Update the TextViews with the attributes for the current entry
+            holder.bind(mCursor.getString(mTitleColumnIndex),
+                    mCursor.getString(mPreviewColumnIndex));
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Holds the views of a list item, so they are only looked up once per item view.
+     */
+    class EntryViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView titleTextView;
+        final TextView bodyTextView;
+
+        /** Text the views show, once bound */
+        private boolean mBound;
+        private String mTitle;
+        private String mPreview;
 
-        // Read the entry attributes from the Cursor for the current entry
-        String entryTitle = cursor.getString(titleColumnIndex);
-        String entryBody = cursor.getString(bodyColumnIndex);
+        EntryViewHolder(View itemView) {
+            super(itemView);
+            // Find individual views that we want to modify in the list item layout
+            titleTextView = (TextView) itemView.findViewById(R.id.title);
+            bodyTextView = (TextView) itemView.findViewById(R.id.body);
+            itemView.setOnClickListener(this);
+        }
 
+        /**
+         * Shows the title and preview. Text the view already shows is not set again: setting
+         * it lays the text out anew and requests a layout of the list, which a row rebound
+         * after a change of its other text, or after a full swap of the cursor, doesn't need.
+         */
+        void bind(String title, String preview) {
+            if (!mBound || !TextUtils.equals(title, mTitle)) {
+                mTitle = title;
+                titleTextView.setText(title);
+            }
+            if (!mBound || !TextUtils.equals(preview, mPreview)) {
+                mPreview = preview;
+                bodyTextView.setText(preview);
+            }
+            mBound = true;
+        }
 
-        // Update the TextViews with the attributes for the current pet
-        titleTextVIew.setText(entryTitle);
-        bodyTextVIew.setText(entryBody);
+        @Override
+        public void onClick(View view) {
+            if (getAdapterPosition() != RecyclerView.NO_POSITION) {
+                mOnEntryClickListener.onEntryClick(getItemId());
+            }
+        }
     }
 }
@@ -0,0 +1,564 @@
+package com.jingkastudio.android.hippocampus;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.v7.util.DiffUtil;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link EntryListLoader} loads a list of entries one page at a time, so the first page of a
+ * long journal shows as fast as the first page of a short one. The next page is only read when
+ * {@link #loadNextPage()} is called, typically when the user scrolls near the end of the list.
+ * Pages are read with keyset queries (see {@link DailyEntry#buildPageUri(Uri, long, int)}).
+ *
+ * When single entries change, only those entries are read again and patched into the loaded
+ * list. Each result also carries the difference to the previous one, computed in the
+ * background, so the list only has to rebind the changed rows (see {@link #getDiff}).
+ */
+public class EntryListLoader extends AsyncTaskLoader<Cursor> {
+
+    /** Number of entries read per page */
+    public static final int PAGE_SIZE = 50;
+
+    /** Content URI of the entries to list */
+    private final Uri mUri;
+
+    /** Columns to read for every entry. Must include {@link DailyEntry#_ID}. */
+    private final String[] mProjection;
+
+    /** Index of {@link DailyEntry#_ID} in the projection */
+    private final int mIdColumn;
+
+    /** Observer that reloads the list when the entries change */
+    private final ContentObserver mObserver;
+
+    /**
+     * Entries that changed one by one since the list was loaded, with how they changed, as a
+     * {@link DailyEntry#QUERY_PARAM_CHANGE} value. Guarded by itself.
+     */
+    private final Map<Long, String> mChanges = new HashMap<>();
+
+    /** The entries loaded so far, as last delivered to the client */
+    private volatile PagedCursor mCursor;
+
+    /** Whether many entries changed since the list was loaded, so it needs to be read again */
+    private volatile boolean mStale;
+
+    /** Whether the next page should be read by the next load */
+    private volatile boolean mNextPageRequested;
+
+    /** Whether {@link #mObserver} is registered */
+    private boolean mObserverRegistered;
+
+    /**
+     * Constructs a new {@link EntryListLoader}.
+     *
+     * @param context    The context
+     * @param uri        Content URI of the entries to list, e.g. a {@link DailyEntry#buildDateUri}
+     * @param projection Columns to read for every entry, including {@link DailyEntry#_ID}
+     */
+    public EntryListLoader(Context context, Uri uri, String[] projection) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mIdColumn = Arrays.asList(projection).indexOf(DailyEntry._ID);
+        if (mIdColumn == -1) {
+            throw new IllegalArgumentException("The projection must include the id");
+        }
+        mObserver = new ContentObserver(new Handler()) {
+            @Override
+            public boolean deliverSelfNotifications() {
+                return true;
+            }
+
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                String change = uri == null
+                        ? null : uri.getQueryParameter(DailyEntry.QUERY_PARAM_CHANGE);
+                if (change != null) {
+                    // A single entry changed, remember it so only that entry is read again
+                    synchronized (mChanges) {
+                        mChanges.put(ContentUris.parseId(uri), change);
+                    }
+                } else {
+                    mStale = true;
+                }
+                onContentChanged();
+            }
+        };
+    }
+
+    /**
+     * Starts loading the next page of entries, unless it is already loading or all entries have
+     * been loaded. The client receives the longer list in onLoadFinished().
+     */
+    public void loadNextPage() {
+        PagedCursor cursor = mCursor;
+        if (cursor == null || cursor.mEndReached || mNextPageRequested) {
+            return;
+        }
+        mNextPageRequested = true;
+        forceLoad();
+    }
+
+    /**
+     * Returns the difference between a list delivered by this loader and the list delivered
+     * before it, or null if it is not known and the whole list has to be rebound.
+     *
+     * @param cursor   a list delivered to onLoadFinished()
+     * @param previous the list the client showed before
+     */
+    public static DiffUtil.DiffResult getDiff(Cursor cursor, Cursor previous) {
+        if (!(cursor instanceof PagedCursor) || !(previous instanceof PagedCursor)) {
+            return null;
+        }
+        PagedCursor pagedCursor = (PagedCursor) cursor;
+        if (pagedCursor.mDiffBase != ((PagedCursor) previous).mRows) {
+            return null;
+        }
+        return pagedCursor.mDiff;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        PagedCursor loaded = mCursor;
+        if (loaded == null || mStale) {
+            // Read the entries again from the start, as many as were loaded so far. That covers
+            // the single changes too.
+            mStale = false;
+            takeChanges();
+            int pageSize = PAGE_SIZE;
+            if (loaded != null) {
+                pageSize = Math.max(PAGE_SIZE, loaded.getCount());
+            }
+            PagedCursor result = readPage(new Object[0][], -1, pageSize);
+            result.mRefreshed = true;
+            return withDiff(result, loaded);
+        }
+
+        // Patch the single changes into the loaded entries
+        Map<Long, String> changes = takeChanges();
+        PagedCursor result = applyChanges(loaded, changes);
+
+        // Read the page after the last loaded entry, if it was asked for
+        if (mNextPageRequested && !result.mEndReached) {
+            result = readPage(result.mRows, result.mLastId, PAGE_SIZE);
+        }
+        result.mChanges = changes;
+        return withDiff(result, loaded);
+    }
+
+    /**
+     * Returns the single changes collected so far, and forgets them.
+     */
+    private Map<Long, String> takeChanges() {
+        synchronized (mChanges) {
+            Map<Long, String> changes = new HashMap<>(mChanges);
+            mChanges.clear();
+            return changes;
+        }
+    }
+
+    /**
+     * Returns the loaded entries with the changed entries read again. Inserted entries past the
+     * last loaded one are left to the next page.
+     */
+    private PagedCursor applyChanges(PagedCursor loaded, Map<Long, String> changes) {
+        Object[][] rows = loaded.mRows;
+        long lastId = loaded.mLastId;
+        for (Map.Entry<Long, String> change : changes.entrySet()) {
+            long id = change.getKey();
+            if (!loaded.mEndReached && id > lastId) {
+                continue;
+            }
+
+            // Read the entry through the list URI, so it's only found if it belongs to the list
+            Object[] row = null;
+            if (!DailyEntry.CHANGE_DELETE.equals(change.getValue())) {
+                row = readEntry(id);
+            }
+
+            int position = positionOf(rows, id);
+            if (position >= 0) {
+                if (row == null) {
+                    rows = remove(rows, position);
+                } else {
+                    rows = rows.clone();
+                    rows[position] = row;
+                }
+            } else if (row != null) {
+                rows = insert(rows, -position - 1, row);
+                lastId = Math.max(lastId, id);
+            }
+        }
+        return new PagedCursor(rows, mProjection, lastId, loaded.mEndReached);
+    }
+
+    /**
+     * Reads one entry of the list, or returns null if it is not in the list (anymore).
+     */
+    private Object[] readEntry(long id) {
+        Cursor cursor = getContext().getContentResolver().query(mUri, mProjection,
+                DailyEntry._ID + "=?", new String[] { String.valueOf(id) }, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? readRow(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads one page of entries and returns it appended to the given rows.
+     */
+    private PagedCursor readPage(Object[][] rows, long afterId, int pageSize) {
+        Cursor page = getContext().getContentResolver().query(
+                DailyEntry.buildPageUri(mUri, afterId, pageSize), mProjection, null, null, null);
+        if (page == null) {
+            return new PagedCursor(rows, mProjection, afterId, true);
+        }
+
+        // Copy the page here on the background thread, so the UI thread never has to touch the
+        // database, and successive lists can share the rows they have in common
+        try {
+            int count = page.getCount();
+            Object[][] allRows = Arrays.copyOf(rows, rows.length + count);
+            for (int i = rows.length; page.moveToNext(); i++) {
+                allRows[i] = readRow(page);
+            }
+            long lastId = count == 0 ? afterId : (Long) allRows[allRows.length - 1][mIdColumn];
+            return new PagedCursor(allRows, mProjection, lastId, count < pageSize);
+        } finally {
+            page.close();
+        }
+    }
+
+    /**
+     * Returns the values of the current row of the cursor, as the types they are stored as.
+     */
+    private Object[] readRow(Cursor cursor) {
+        Object[] row = new Object[mProjection.length];
+        for (int column = 0; column < row.length; column++) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[column] = cursor.getLong(column);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[column] = cursor.getDouble(column);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[column] = cursor.getBlob(column);
+                    break;
+                default:
+                    row[column] = cursor.getString(column);
+                    break;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Returns the position of the entry in the rows, which are sorted by id. If it is not there,
+     * returns (-(insertion point) - 1) like {@link Arrays#binarySearch}.
+     */
+    private int positionOf(Object[][] rows, long id) {
+        int low = 0;
+        int high = rows.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = (Long) rows[middle][mIdColumn];
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static Object[][] insert(Object[][] rows, int position, Object[] row) {
+        Object[][] result = new Object[rows.length + 1][];
+        System.arraycopy(rows, 0, result, 0, position);
+        result[position] = row;
+        System.arraycopy(rows, position, result, position + 1, rows.length - position);
+        return result;
+    }
+
+    private static Object[][] remove(Object[][] rows, int position) {
+        Object[][] result = new Object[rows.length - 1][];
+        System.arraycopy(rows, 0, result, 0, position);
+        System.arraycopy(rows, position + 1, result, position, result.length - position);
+        return result;
+    }
+
+    /**
+     * Computes the difference between the previous and the new list, and attaches it to the
+     * new list.
+     */
+    private PagedCursor withDiff(final PagedCursor result, PagedCursor previous) {
+        if (previous == null) {
+            return result;
+        }
+        final Object[][] oldRows = previous.mRows;
+        final Object[][] newRows = result.mRows;
+        result.mDiffBase = oldRows;
+        result.mDiff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldRows.length;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newRows.length;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldRows[oldPosition][mIdColumn].equals(newRows[newPosition][mIdColumn]);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                // Rows that were not read again are shared between the lists
+                return oldRows[oldPosition] == newRows[newPosition]
+                        || Arrays.deepEquals(oldRows[oldPosition], newRows[newPosition]);
+            }
+        }, false);
+        return result;
+    }
+
+    @Override
+    public void deliverResult(Cursor data) {
+        PagedCursor cursor = (PagedCursor) data;
+        mNextPageRequested = false;
+        if (isReset()) {
+            // An async query came in while the loader is stopped
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+
+        PagedCursor oldCursor = mCursor;
+        mCursor = cursor;
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        // The client has the new list now
+        if (oldCursor != null && oldCursor != cursor) {
+            oldCursor.close();
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        // Keep observing while stopped, so changes made meanwhile reload the list on restart.
+        // Changes of single entries are notified on their own URIs, so observe all entries.
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(
+                    DailyEntry.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor data) {
+        PagedCursor cursor = (PagedCursor) data;
+        if (cursor == null) {
+            return;
+        }
+
+        // Hand what the canceled load consumed back to the next load, unless newer changes
+        // came in meanwhile
+        if (cursor.mRefreshed) {
+            mStale = true;
+        }
+        if (cursor.mChanges != null) {
+            synchronized (mChanges) {
+                for (Map.Entry<Long, String> change : cursor.mChanges.entrySet()) {
+                    if (!mChanges.containsKey(change.getKey())) {
+                        mChanges.put(change.getKey(), change.getValue());
+                    }
+                }
+            }
+        }
+        cursor.close();
+
+        // Make sure a load follows, also when the loader is restarted after being stopped
+        onContentChanged();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        if (mCursor != null) {
+            mCursor.close();
+        }
+        mCursor = null;
+    }
+
+    /**
+     * A cursor over the loaded entries, held in memory. Successive results of the loader share
+     * the rows they have in common, which are never modified.
+     */
+    private static class PagedCursor extends AbstractCursor {
+
+        /** The loaded rows, sorted by id */
+        final Object[][] mRows;
+
+        /** Id of the last entry read from the database, where the next page starts */
+        final long mLastId;
+
+        /** Whether the last page was the end of the list */
+        final boolean mEndReached;
+
+        /** Whether this list was read again from the start */
+        boolean mRefreshed;
+
+        /** The single changes patched into this list, or null */
+        Map<Long, String> mChanges;
+
+        /** Rows of the list {@link #mDiff} is relative to, or null */
+        Object[][] mDiffBase;
+
+        /** Difference to the list before, or null */
+        DiffUtil.DiffResult mDiff;
+
+        /** Column names of the rows */
+        private final String[] mColumnNames;
+
+        PagedCursor(Object[][] rows, String[] columnNames, long lastId, boolean endReached) {
+            mRows = rows;
+            mColumnNames = columnNames;
+            mLastId = lastId;
+            mEndReached = endReached;
+        }
+
+        /**
+         * Returns the value of the column in the current row.
+         */
+        private Object get(int column) {
+            return mRows[getPosition()][column];
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return (byte[]) get(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            }
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
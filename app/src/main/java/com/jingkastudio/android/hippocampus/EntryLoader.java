@@ -0,0 +1,81 @@
+package com.jingkastudio.android.hippocampus;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentUris;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+/**
+ * {@link EntryLoader} loads a single entry through {@link EntryContract#METHOD_GET_ENTRY}, which
+ * returns the columns of the entry in a Bundle keyed by column name. Unlike a query, that sets up
+ * no cursor and no cursor window for the one row.
+ *
+ * The entry is loaded once; changes made to it afterwards are not loaded again, as the editor
+ * holds the user's text from then on. The result is null if there is no such entry.
+ */
+public class EntryLoader extends AsyncTaskLoader<Bundle> {
+
+    /** Content URI of the entry to load */
+    private final Uri mUri;
+
+    /** The loaded entry, as last delivered to the client */
+    private Bundle mEntry;
+
+    /** Whether the entry was loaded, as it may be null */
+    private boolean mLoaded;
+
+    /**
+     * Constructs a new {@link EntryLoader}.
+     *
+     * @param context The context
+     * @param uri     Content URI of the entry, e.g. DailyEntry.CONTENT_URI with the id appended
+     */
+    public EntryLoader(Context context, Uri uri) {
+        super(context);
+        mUri = uri;
+    }
+
+    @Override
+    public Bundle loadInBackground() {
+        return getContext().getContentResolver().call(DailyEntry.CONTENT_URI,
+                EntryContract.METHOD_GET_ENTRY, String.valueOf(ContentUris.parseId(mUri)), null);
+    }
+
+    @Override
+    public void deliverResult(Bundle entry) {
+        if (isReset()) {
+            return;
+        }
+        mEntry = entry;
+        mLoaded = true;
+        if (isStarted()) {
+            super.deliverResult(entry);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mLoaded) {
+            deliverResult(mEntry);
+        } else {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mEntry = null;
+        mLoaded = false;
+    }
+}
@@ -0,0 +1,293 @@
+package com.jingkastudio.android.hippocampus;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link EntryWriteQueue} writes entries on a background thread, so saving never blocks the UI
+ * thread on the disk. Writes are collected for a short while and then committed together in one
+ * batch, that is one transaction. Updates of an entry that are still waiting are merged into a
+ * single update, and a delete of the entry replaces them; an update that comes after a waiting
+ * delete is committed after it, on its own. Listeners are told on the UI thread once their
+ * write has been committed.
+ */
+public final class EntryWriteQueue {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = EntryWriteQueue.class.getSimpleName();
+
+    /** How long writes are collected before they are committed, in milliseconds */
+    private static final long BATCH_WINDOW_MS = 100;
+
+    /** Kinds of writes */
+    private static final int TYPE_INSERT = 0;
+    private static final int TYPE_UPDATE = 1;
+    private static final int TYPE_DELETE = 2;
+
+    /** The queue of the app */
+    private static EntryWriteQueue sInstance;
+
+    /**
+     * Interface definition for a callback to be invoked when a write has been committed.
+     */
+    public interface OnWriteCompleteListener {
+
+        /**
+         * Called on the UI thread when the write has been committed, or has failed.
+         *
+         * @param uri     The content URI of the entry that was written. For an insert, the URI
+         *                of the new entry, or null if the insert failed.
+         * @param success Whether the entry was written.
+         */
+        void onWriteComplete(Uri uri, boolean success);
+    }
+
+    private final ContentResolver mResolver;
+
+    /** Handler of the thread that commits the writes */
+    private final Handler mWriteHandler;
+
+    /** Handler of the UI thread, for the listeners */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Writes waiting to be committed, in the order they came in. Guarded by this. */
+    private final List<PendingWrite> mPendingWrites = new ArrayList<>();
+
+    /**
+     * The latest of the waiting updates and deletes of each entry URI, which later writes of the
+     * entry are merged into. Guarded by this.
+     */
+    private final Map<Uri, PendingWrite> mLatestWrites = new HashMap<>();
+
+    /** Whether a commit of the pending writes is scheduled. Guarded by this. */
+    private boolean mCommitScheduled;
+
+    /** Commits the pending writes, run on the write thread */
+    private final Runnable mCommit = new Runnable() {
+        @Override
+        public void run() {
+            commitPendingWrites();
+        }
+    };
+
+    /**
+     * Returns the write queue of the app.
+     */
+    public static synchronized EntryWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EntryWriteQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private EntryWriteQueue(Context context) {
+        mResolver = context.getContentResolver();
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWriteHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Queues the insert of a new entry.
+     *
+     * @param values   The values of the new entry.
+     * @param listener The listener to tell once the entry is inserted, or null.
+     */
+    public void insert(ContentValues values, OnWriteCompleteListener listener) {
+        enqueue(TYPE_INSERT, DailyEntry.CONTENT_URI, values, listener);
+    }
+
+    /**
+     * Queues the update of an entry. It is merged with an update of the entry that is still
+     * waiting, the later values winning. If a delete of the entry is waiting instead, the update
+     * is committed after it.
+     *
+     * @param uri      The content URI of the entry.
+     * @param values   The values to change.
+     * @param listener The listener to tell once the entry is updated, or null.
+     */
+    public void update(Uri uri, ContentValues values, OnWriteCompleteListener listener) {
+        enqueue(TYPE_UPDATE, uri, values, listener);
+    }
+
+    /**
+     * Queues the delete of an entry. It replaces an update of the entry that is still waiting.
+     *
+     * @param uri      The content URI of the entry.
+     * @param listener The listener to tell once the entry is deleted, or null.
+     */
+    public void delete(Uri uri, OnWriteCompleteListener listener) {
+        enqueue(TYPE_DELETE, uri, null, listener);
+    }
+
+    /**
+     * Queues the delete of all entries. The writes queued before it are committed first, in the
+     * same batch.
+     *
+     * @param listener The listener to tell once the entries are deleted, or null.
+     */
+    public void deleteAll(OnWriteCompleteListener listener) {
+        enqueue(TYPE_DELETE, DailyEntry.CONTENT_URI, null, listener);
+    }
+
+    private synchronized void enqueue(int type, Uri uri, ContentValues values,
+                                      OnWriteCompleteListener listener) {
+        PendingWrite write = type == TYPE_INSERT ? null : mLatestWrites.get(uri);
+        if (write != null && type == TYPE_DELETE) {
+            // Nothing left to update once the entry is deleted
+            write.mType = TYPE_DELETE;
+            write.mValues = null;
+        } else if (write != null && write.mType == TYPE_UPDATE) {
+            write.mValues.putAll(values);
+        } else {
+            // An update after a delete is a write of its own, e.g. a draft saved again after it
+            // was discarded; merged into the delete, it would be dropped
+            write = new PendingWrite(type, uri, values == null ? null : new ContentValues(values));
+            mPendingWrites.add(write);
+            if (type != TYPE_INSERT) {
+                mLatestWrites.put(uri, write);
+            }
+        }
+        if (listener != null) {
+            write.mListeners.add(listener);
+        }
+
+        if (!mCommitScheduled) {
+            mCommitScheduled = true;
+            mWriteHandler.postDelayed(mCommit, BATCH_WINDOW_MS);
+        }
+    }
+
+    /**
+     * Commits all the pending writes in one batch. If the batch fails, the writes are committed
+     * one by one, so a single bad write doesn't fail the others.
+     */
+    private void commitPendingWrites() {
+        List<PendingWrite> writes;
+        synchronized (this) {
+            writes = new ArrayList<>(mPendingWrites);
+            mPendingWrites.clear();
+            mLatestWrites.clear();
+            mCommitScheduled = false;
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(writes.size());
+        for (PendingWrite write : writes) {
+            operations.add(write.toOperation());
+        }
+
+        try {
+            ContentProviderResult[] results =
+                    mResolver.applyBatch(EntryContract.CONTENT_AUTHORITY, operations);
+            for (int i = 0; i < writes.size(); i++) {
+                PendingWrite write = writes.get(i);
+                if (write.mType == TYPE_INSERT) {
+                    report(write, results[i].uri, results[i].uri != null);
+                } else {
+                    report(write, write.mUri, results[i].count != null && results[i].count > 0);
+                }
+            }
+            return;
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            Log.w(LOG_TAG, "Failed to commit " + writes.size() + " writes, retrying one by one", e);
+        }
+
+        for (PendingWrite write : writes) {
+            commit(write);
+        }
+    }
+
+    /**
+     * Commits a single write on its own.
+     */
+    private void commit(PendingWrite write) {
+        try {
+            switch (write.mType) {
+                case TYPE_INSERT:
+                    Uri newUri = mResolver.insert(write.mUri, write.mValues);
+                    report(write, newUri, newUri != null);
+                    break;
+                case TYPE_UPDATE:
+                    int rowsUpdated = mResolver.update(write.mUri, write.mValues, null, null);
+                    report(write, write.mUri, rowsUpdated > 0);
+                    break;
+                default:
+                    int rowsDeleted = mResolver.delete(write.mUri, null, null);
+                    report(write, write.mUri, rowsDeleted > 0);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to write " + write.mUri, e);
+            report(write, write.mType == TYPE_INSERT ? null : write.mUri, false);
+        }
+    }
+
+    /**
+     * Tells the listeners of the write how it went, on the UI thread.
+     */
+    private void report(final PendingWrite write, final Uri uri, final boolean success) {
+        if (write.mListeners.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnWriteCompleteListener listener : write.mListeners) {
+                    listener.onWriteComplete(uri, success);
+                }
+            }
+        });
+    }
+
+    /**
+     * A write waiting to be committed, with everyone waiting for it.
+     */
+    private static final class PendingWrite {
+
+        int mType;
+
+        /** URI of the entry, or of the entries table for an insert */
+        final Uri mUri;
+
+        /** Values to insert or update, null for a delete */
+        ContentValues mValues;
+
+        final List<OnWriteCompleteListener> mListeners = new ArrayList<>(1);
+
+        PendingWrite(int type, Uri uri, ContentValues values) {
+            mType = type;
+            mUri = uri;
+            mValues = values;
+        }
+
+        ContentProviderOperation toOperation() {
+            switch (mType) {
+                case TYPE_INSERT:
+                    return ContentProviderOperation.newInsert(mUri).withValues(mValues).build();
+                case TYPE_UPDATE:
+                    return ContentProviderOperation.newUpdate(mUri).withValues(mValues).build();
+                default:
+                    return ContentProviderOperation.newDelete(mUri).build();
+            }
+        }
+    }
+}
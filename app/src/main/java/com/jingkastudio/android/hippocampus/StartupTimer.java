@@ -0,0 +1,58 @@
+package com.jingkastudio.android.hippocampus;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * {@link StartupTimer} logs the phases of a cold start of the app, from the creation of the
+ * provider, which is the first component the process creates, to the first list of entries on
+ * screen. Every phase is logged with the time since the first one and since the phase before,
+ * for instance "first_list_loaded +412 ms (+35 ms)". Filter the log by {@link #LOG_TAG} to read
+ * them, see scripts/cold_start.sh.
+ *
+ * Phases after the first list are not logged, so coming back to the list doesn't add noise.
+ */
+public final class StartupTimer {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = StartupTimer.class.getSimpleName();
+
+    /** Time of the first phase, and of the latest one, in milliseconds since boot */
+    private static long sStartTime = -1;
+    private static long sLastTime;
+
+    /** Whether the startup is over */
+    private static boolean sFinished;
+
+    // To prevent someone from accidentally instantiating the timer class
+    private StartupTimer() {}
+
+    /**
+     * Logs that the startup reached the given phase. Can be called from any thread.
+     */
+    public static void mark(String phase) {
+        log(phase, false);
+    }
+
+    /**
+     * Logs the last phase of the startup. Later phases are ignored.
+     */
+    public static void finish(String phase) {
+        log(phase, true);
+    }
+
+    private static synchronized void log(String phase, boolean last) {
+        if (sFinished) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (sStartTime == -1) {
+            sStartTime = now;
+            sLastTime = now;
+        }
+        Log.i(LOG_TAG, phase + " +" + (now - sStartTime) + " ms (+" + (now - sLastTime) + " ms)"
+                + " on " + Thread.currentThread().getName());
+        sLastTime = now;
+        sFinished = last;
+    }
+}
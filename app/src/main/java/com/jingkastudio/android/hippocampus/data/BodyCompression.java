@@ -0,0 +1,180 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of large entry bodies at rest. A compressed body is stored deflated in the
+ * {@link EntryDbHelper#COLUMN_BODY_COMPRESSED} column, and {@link DailyEntry#COLUMN_BODY} is NULL.
+ */
+final class BodyCompression {
+
+    /**
+     * Bodies shorter than this many characters are stored as plain text. Below it the deflate
+     * overhead outweighs the saving, and the body fits in the row's page anyway.
+     */
+    static final int THRESHOLD = 512;
+
+    /** Number of entries converted per transaction by {@link #migrate} */
+    private static final int MIGRATION_BATCH_SIZE = 100;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // To prevent someone from accidentally instantiating the compression class
+    private BodyCompression() {}
+
+    /**
+     * Returns whether the given body should be stored compressed.
+     */
+    static boolean shouldCompress(String body) {
+        return body != null && body.length() >= THRESHOLD;
+    }
+
+    /**
+     * Returns the body deflated.
+     */
+    static byte[] compress(String body) {
+        byte[] input = body.getBytes(UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the body inflated from the output of {@link #compress(String)}.
+     *
+     * @throws IllegalStateException if the data is not a compressed body
+     */
+    static String decompress(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 3);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated compressed body");
+                }
+                output.write(buffer, 0, length);
+            }
+            return new String(output.toByteArray(), UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the body of the current row of the cursor, inflating it if it is stored compressed.
+     *
+     * @param bodyColumn           index of {@link DailyEntry#COLUMN_BODY} in the cursor
+     * @param compressedBodyColumn index of {@link EntryDbHelper#COLUMN_BODY_COMPRESSED}
+     */
+    static String readBody(Cursor cursor, int bodyColumn, int compressedBodyColumn) {
+        if (cursor.isNull(compressedBodyColumn)) {
+            return cursor.getString(bodyColumn);
+        }
+        return decompress(cursor.getBlob(compressedBodyColumn));
+    }
+
+    /**
+     * Converts the stored bodies of existing entries: compresses the large plain bodies, or
+     * inflates all compressed bodies back to plain text. Each batch is converted in its own
+     * transaction, which also covers reading it, so concurrent writes are never overwritten.
+     * The full-text index keeps the full text of the bodies, see {@link SearchIndex}.
+     *
+     * @param compress true to compress the large bodies, false to inflate the compressed ones
+     * @param stop     checked between batches, the conversion stops early when it returns true
+     * @return the number of entries converted
+     */
+    static int migrate(SQLiteDatabase db, boolean compress, StopCondition stop) {
+        String selection = compress
+                ? EntryDbHelper.COLUMN_BODY_COMPRESSED + " IS NULL AND length("
+                        + DailyEntry.COLUMN_BODY + ") >= " + THRESHOLD
+                : EntryDbHelper.COLUMN_BODY_COMPRESSED + " IS NOT NULL";
+        String[] projection = {
+                DailyEntry._ID, DailyEntry.COLUMN_BODY, EntryDbHelper.COLUMN_BODY_COMPRESSED,
+                DailyEntry.COLUMN_TITLE };
+
+        int converted = 0;
+        long lastId = 0;
+        while (!stop.shouldStop()) {
+            int batchCount = 0;
+            db.beginTransaction();
+            SQLiteStatement update = db.compileStatement("UPDATE " + DailyEntry.TABLE_NAME
+                    + " SET " + DailyEntry.COLUMN_BODY + " = ?, "
+                    + EntryDbHelper.COLUMN_BODY_COMPRESSED + " = ? WHERE " + DailyEntry._ID + " = ?");
+            try {
+                Cursor cursor = db.query(DailyEntry.TABLE_NAME, projection,
+                        DailyEntry._ID + " > ? AND " + selection,
+                        new String[] { String.valueOf(lastId) }, null, null, DailyEntry._ID,
+                        String.valueOf(MIGRATION_BATCH_SIZE));
+                try {
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        update.clearBindings();
+                        if (compress) {
+                            String body = cursor.getString(1);
+                            update.bindNull(1);
+                            update.bindBlob(2, compress(body));
+                            update.bindLong(3, lastId);
+                            update.executeUpdateDelete();
+                            SearchIndex.addCompressed(db, lastId, cursor.getString(3), body);
+                        } else {
+                            String body = decompress(cursor.getBlob(2));
+                            SearchIndex.removeCompressed(db, lastId, body);
+                            update.bindString(1, body);
+                            update.bindNull(2);
+                            update.bindLong(3, lastId);
+                            update.executeUpdateDelete();
+                        }
+                        batchCount++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                update.close();
+                db.endTransaction();
+            }
+
+            converted += batchCount;
+            if (batchCount < MIGRATION_BATCH_SIZE) {
+                break;
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Tells a long running {@link #migrate} to stop early.
+     */
+    interface StopCondition {
+
+        /** Returns true if the migration should stop before its next batch */
+        boolean shouldStop();
+    }
+}
@@ -0,0 +1,179 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Reads and writes the archive of the journal: one JSON object per line and per entry, with the
+ * title, body, tag, date, created and modified columns of the entry. Absent keys are NULL.
+ *
+ * Both directions stream the entries in chunks of {@link #CHUNK_SIZE}, so the memory they take
+ * doesn't grow with the journal. The export reads the entries in order of id, a chunk at a time
+ * after the last id of the previous chunk; entries written meanwhile may or may not be part of
+ * it. The import commits each chunk in its own transaction.
+ */
+final class EntryArchive {
+
+    /** Number of entries read or inserted at a time */
+    static final int CHUNK_SIZE = 500;
+
+    /** The columns of an entry in the archive besides the body, by type */
+    private static final String[] TEXT_COLUMNS = {
+            DailyEntry.COLUMN_TITLE,
+            DailyEntry.COLUMN_TAG };
+    private static final String[] NUMBER_COLUMNS = {
+            DailyEntry.COLUMN_DATE,
+            DailyEntry.COLUMN_CREATED,
+            DailyEntry.COLUMN_MODIFIED };
+
+    /**
+     * Inserts a chunk of imported entries.
+     */
+    interface Inserter {
+
+        /**
+         * Inserts the entries in one transaction. Returns the number of entries inserted.
+         */
+        int insert(ContentValues[] entries);
+    }
+
+    // To prevent someone from accidentally instantiating the archive class
+    private EntryArchive() {}
+
+    /**
+     * Writes all entries of the database to the stream. Returns the number of entries written.
+     * The stream is flushed, but not closed.
+     */
+    static int write(SQLiteDatabase database, OutputStream out) throws IOException {
+        String[] columns = new String[TEXT_COLUMNS.length + NUMBER_COLUMNS.length + 3];
+        columns[0] = DailyEntry._ID;
+        columns[1] = DailyEntry.COLUMN_BODY;
+        columns[2] = EntryDbHelper.COLUMN_BODY_COMPRESSED;
+        System.arraycopy(TEXT_COLUMNS, 0, columns, 3, TEXT_COLUMNS.length);
+        System.arraycopy(NUMBER_COLUMNS, 0, columns, 3 + TEXT_COLUMNS.length,
+                NUMBER_COLUMNS.length);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        String[] lastId = { "0" };
+        int written = 0;
+        while (true) {
+            Cursor cursor = database.query(DailyEntry.TABLE_NAME, columns, DailyEntry._ID + " > ?",
+                    lastId, null, null, DailyEntry._ID, String.valueOf(CHUNK_SIZE));
+            try {
+                if (cursor.getCount() == 0) {
+                    break;
+                }
+                while (cursor.moveToNext()) {
+                    writer.write(toJson(cursor).toString());
+                    writer.write('\n');
+                    written++;
+                }
+                cursor.moveToLast();
+                lastId[0] = cursor.getString(0);
+            } finally {
+                cursor.close();
+            }
+        }
+        writer.flush();
+        return written;
+    }
+
+    /**
+     * Returns the entry at the current position of a cursor over the columns
+     * {@link #write} queries.
+     */
+    private static JSONObject toJson(Cursor cursor) {
+        JSONObject entry = new JSONObject();
+        try {
+            entry.putOpt(DailyEntry.COLUMN_BODY, BodyCompression.readBody(cursor, 1, 2));
+            int column = 3;
+            for (String name : TEXT_COLUMNS) {
+                if (!cursor.isNull(column)) {
+                    entry.put(name, cursor.getString(column));
+                }
+                column++;
+            }
+            for (String name : NUMBER_COLUMNS) {
+                entry.put(name, cursor.getLong(column));
+                column++;
+            }
+        } catch (JSONException e) {
+            // Only thrown for numbers that are not finite
+            throw new IllegalStateException(e);
+        }
+        return entry;
+    }
+
+    /**
+     * Reads the entries of the archive from the stream and passes them on to the inserter in
+     * chunks. Entries of chunks inserted before an error stay inserted. Returns the number of
+     * entries inserted. The stream is not closed.
+     *
+     * @throws IllegalArgumentException if a line is not an entry
+     */
+    static int read(InputStream in, Inserter inserter) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+        int size = 0;
+        int inserted = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                chunk[size++] = toValues(new JSONObject(line));
+            } catch (JSONException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + " is not an entry", e);
+            }
+            if (size == CHUNK_SIZE) {
+                inserted += inserter.insert(chunk);
+                chunk = new ContentValues[CHUNK_SIZE];
+                size = 0;
+            }
+        }
+        if (size != 0) {
+            inserted += inserter.insert(Arrays.copyOf(chunk, size));
+        }
+        return inserted;
+    }
+
+    /**
+     * Returns the values of an entry of the archive.
+     */
+    private static ContentValues toValues(JSONObject entry) throws JSONException {
+        ContentValues values = new ContentValues();
+        if (entry.has(DailyEntry.COLUMN_BODY)) {
+            values.put(DailyEntry.COLUMN_BODY, entry.getString(DailyEntry.COLUMN_BODY));
+        }
+        for (String name : TEXT_COLUMNS) {
+            if (entry.has(name)) {
+                values.put(name, entry.getString(name));
+            }
+        }
+        for (String name : NUMBER_COLUMNS) {
+            if (entry.has(name)) {
+                values.put(name, entry.getLong(name));
+            }
+        }
+        return values;
+    }
+}
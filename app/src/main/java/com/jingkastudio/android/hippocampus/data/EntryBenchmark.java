@@ -0,0 +1,290 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+import java.util.Random;
+
+/**
+ * Debug benchmarks for the database layer. They run against a scratch database, so the
+ * entries of the user are never touched, and write their results to the log.
+ * Must be called from a background thread. They measure the database itself, on the device;
+ * the operations of {@link EntryProvider} are benchmarked on the JVM, by "./gradlew benchmark".
+ */
+public final class EntryBenchmark {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = EntryBenchmark.class.getSimpleName();
+
+    /** Name of the scratch database file the benchmarks run against */
+    private static final String DATABASE_NAME = "hippo_benchmark.db";
+
+    /** Number of entries in the scratch database */
+    private static final int ENTRY_COUNT = 10000;
+
+    /** Number of days the entries are spread over */
+    private static final int DAY_COUNT = 365;
+
+    /** Number of reads measured in each benchmark run */
+    private static final int READ_COUNT = 500;
+
+    /** Number of entries the concurrent writer inserts per transaction */
+    private static final int WRITE_BATCH_SIZE = 50;
+
+    /** Words the bodies of the generated entries are made of */
+    private static final String[] WORDS = {
+            "today", "I", "went", "to", "the", "market", "and", "bought", "coffee", "with",
+            "my", "sister", "we", "talked", "about", "work", "weather", "was", "cold", "but",
+            "sunny", "learned", "something", "new", "problem", "solved", "after", "lunch",
+            "meeting", "ran", "five", "kilometers", "felt", "tired", "happy", "grateful", "for",
+            "friends", "book", "chapter", "read", "evening", "dinner", "cooked", "pasta", "late",
+            "slept", "early", "morning", "idea", "project", "wrote", "code", "bug", "fixed" };
+
+    // To prevent someone from accidentally instantiating the benchmark class
+    private EntryBenchmark() {}
+
+    /**
+     * Runs all benchmarks and logs their results.
+     *
+     * @param context of the app
+     */
+    public static void runAll(Context context) {
+        Log.i(LOG_TAG, "Reads while writing, write-ahead log:");
+        benchmarkReadsDuringWrites(context, true);
+        Log.i(LOG_TAG, "Reads while writing, rollback journal:");
+        benchmarkReadsDuringWrites(context, false);
+        Log.i(LOG_TAG, "Body storage, plain text:");
+        benchmarkBodyCompression(context, false);
+        Log.i(LOG_TAG, "Body storage, compressed:");
+        benchmarkBodyCompression(context, true);
+    }
+
+    /**
+     * Measures the latency of reading the entries of one day, first on an idle database and then
+     * while another thread keeps inserting entries. With write-ahead logging both should be
+     * about the same, as readers don't wait for the writer.
+     */
+    private static void benchmarkReadsDuringWrites(Context context, boolean writeAheadLogging) {
+        context.deleteDatabase(DATABASE_NAME);
+        EntryDbHelper helper = new EntryDbHelper(context, DATABASE_NAME);
+        helper.setWriteAheadLoggingEnabled(writeAheadLogging);
+        final SQLiteDatabase database = helper.getWritableDatabase();
+        try {
+            insertEntries(database, 0, ENTRY_COUNT);
+
+            LatencyRecorder idle = new LatencyRecorder("read, idle");
+            readDays(database, idle);
+            Log.i(LOG_TAG, idle.summary());
+
+            final LatencyRecorder writes = new LatencyRecorder("write batch of " + WRITE_BATCH_SIZE);
+            final Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int next = ENTRY_COUNT;
+                    while (!Thread.currentThread().isInterrupted()) {
+                        long start = System.nanoTime();
+                        insertEntries(database, next, WRITE_BATCH_SIZE);
+                        writes.record(System.nanoTime() - start, WRITE_BATCH_SIZE);
+                        next += WRITE_BATCH_SIZE;
+                    }
+                }
+            });
+            writer.start();
+
+            LatencyRecorder busy = new LatencyRecorder("read, while writing");
+            readDays(database, busy);
+            writer.interrupt();
+            writer.join();
+            Log.i(LOG_TAG, busy.summary());
+            Log.i(LOG_TAG, writes.summary());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            helper.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Measures the database size and the latency of reading single entries, with the bodies
+     * stored as plain text or compressed. The bodies are a couple of kilobytes of prose.
+     */
+    private static void benchmarkBodyCompression(Context context, boolean compress) {
+        context.deleteDatabase(DATABASE_NAME);
+        EntryDbHelper helper = new EntryDbHelper(context, DATABASE_NAME);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        try {
+            database.beginTransaction();
+            SQLiteStatement statement = database.compileStatement("INSERT INTO "
+                    + DailyEntry.TABLE_NAME + " ("
+                    + DailyEntry.COLUMN_TITLE + ", "
+                    + DailyEntry.COLUMN_BODY + ", "
+                    + DailyEntry.COLUMN_PREVIEW + ", "
+                    + DailyEntry.COLUMN_DATE + ") VALUES (?, ?, ?, ?)");
+            try {
+                for (int i = 0; i < ENTRY_COUNT; i++) {
+                    String body = proseOf(i, 2048);
+                    statement.bindString(1, "Entry " + i);
+                    statement.bindString(2, body);
+                    statement.bindString(3, EntryProvider.previewOf(body));
+                    statement.bindLong(4, dateKeyOf(i));
+                    statement.executeInsert();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                statement.close();
+                database.endTransaction();
+            }
+
+            if (compress) {
+                long start = System.nanoTime();
+                int converted = BodyCompression.migrate(database, true,
+                        new BodyCompression.StopCondition() {
+                            @Override
+                            public boolean shouldStop() {
+                                return false;
+                            }
+                        });
+                Log.i(LOG_TAG, "compressed " + converted + " bodies in "
+                        + (System.nanoTime() - start) / 1000000 + "ms");
+            }
+
+            // Measure the size of the database once the log is checkpointed and the free pages
+            // left by the conversion are gone
+            database.execSQL("VACUUM");
+            long size = DatabaseUtils.longForQuery(database, "PRAGMA page_count", null)
+                    * DatabaseUtils.longForQuery(database, "PRAGMA page_size", null);
+            Log.i(LOG_TAG, "database size: " + size / 1024 + "KB");
+
+            LatencyRecorder reads = new LatencyRecorder("read single entry");
+            String[] projection = {
+                    DailyEntry._ID, DailyEntry.COLUMN_BODY, EntryDbHelper.COLUMN_BODY_COMPRESSED };
+            Random random = new Random(0);
+            for (int i = 0; i < READ_COUNT; i++) {
+                String[] selectionArgs = { String.valueOf(1 + random.nextInt(ENTRY_COUNT)) };
+                long start = System.nanoTime();
+                Cursor cursor = database.query(DailyEntry.TABLE_NAME, projection,
+                        DailyEntry._ID + "=?", selectionArgs, null, null, null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        BodyCompression.readBody(cursor, 1, 2);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                reads.record(System.nanoTime() - start);
+            }
+            Log.i(LOG_TAG, reads.summary());
+        } finally {
+            helper.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Reads the entries of {@link #READ_COUNT} days, recording the latency of each read.
+     */
+    private static void readDays(SQLiteDatabase database, LatencyRecorder recorder) {
+        String[] projection = { DailyEntry._ID, DailyEntry.COLUMN_TITLE, DailyEntry.COLUMN_BODY };
+        String selection = DailyEntry.COLUMN_DATE + "=?";
+        for (int i = 0; i < READ_COUNT; i++) {
+            String[] selectionArgs = { String.valueOf(dateKeyOf(i)) };
+            long start = System.nanoTime();
+            Cursor cursor = database.query(DailyEntry.TABLE_NAME, projection, selection,
+                    selectionArgs, null, null, DailyEntry._ID);
+            try {
+                // Fill the cursor window, so the rows are actually read
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            recorder.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Inserts generated entries in one transaction.
+     *
+     * @param first number of the first entry, used to spread the entries over the days
+     * @param count number of entries to insert
+     */
+    private static void insertEntries(SQLiteDatabase database, int first, int count) {
+        long now = System.currentTimeMillis();
+        database.beginTransaction();
+        SQLiteStatement statement = database.compileStatement("INSERT INTO "
+                + DailyEntry.TABLE_NAME + " ("
+                + DailyEntry.COLUMN_TITLE + ", "
+                + DailyEntry.COLUMN_BODY + ", "
+                + DailyEntry.COLUMN_DATE + ", "
+                + DailyEntry.COLUMN_CREATED + ", "
+                + DailyEntry.COLUMN_MODIFIED + ") VALUES (?, ?, ?, ?, ?)");
+        try {
+            for (int i = first; i < first + count; i++) {
+                statement.bindString(1, "Entry " + i);
+                statement.bindString(2, bodyOf(i));
+                statement.bindLong(3, dateKeyOf(i));
+                statement.bindLong(4, now);
+                statement.bindLong(5, now);
+                statement.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the values of generated entry number i, as the editor would write them. Also
+     * used by the benchmarks of the provider, which run on the JVM.
+     */
+    static ContentValues valuesOf(int i) {
+        ContentValues values = new ContentValues();
+        values.put(DailyEntry.COLUMN_TITLE, "Entry " + i);
+        values.put(DailyEntry.COLUMN_BODY, bodyOf(i));
+        values.put(DailyEntry.COLUMN_TAG, WORDS[i % WORDS.length]);
+        values.put(DailyEntry.COLUMN_DATE, dateKeyOf(i));
+        return values;
+    }
+
+    /**
+     * Returns the day generated entry number i is filed under.
+     */
+    private static int dateKeyOf(int i) {
+        int day = i % DAY_COUNT;
+        return DailyEntry.toDateKey(2017, 1 + day / 28 % 12, 1 + day % 28);
+    }
+
+    /**
+     * Returns the body of generated entry number i, a few hundred characters of text.
+     */
+    static String bodyOf(int i) {
+        StringBuilder body = new StringBuilder();
+        for (int sentence = 0; sentence < 8; sentence++) {
+            body.append("Entry ").append(i).append(" sentence ").append(sentence)
+                    .append(": today I wrote down what happened and what I learned from it. ");
+        }
+        return body.toString();
+    }
+
+    /**
+     * Returns about the given number of characters of prose for generated entry number i,
+     * with the word mix of a real journal rather than a repeated sentence.
+     */
+    private static String proseOf(int i, int length) {
+        Random random = new Random(i);
+        StringBuilder prose = new StringBuilder(length + 16);
+        while (prose.length() < length) {
+            prose.append(WORDS[random.nextInt(WORDS.length)]);
+            prose.append(random.nextInt(12) == 0 ? ". " : " ");
+        }
+        return prose.toString();
+    }
+}
@@ -0,0 +1,204 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.util.LruCache;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+/**
+ * In-memory cache of recently read and written entries, bounded by the approximate number of
+ * bytes the entries take up. It holds whole rows with the body inflated, so a single-entry query
+ * for any of its columns can be answered without SQLite.
+ *
+ * Every change of the cache bumps a generation counter. A reader that missed remembers the
+ * generation before reading the database, and its row is only cached if nothing was written
+ * meanwhile. That way a row read just before a write can never overwrite the written one.
+ */
+final class EntryCache {
+
+    /** The columns of a cached row, in order */
+    static final String[] COLUMNS = {
+            DailyEntry._ID,
+            DailyEntry.COLUMN_TITLE,
+            DailyEntry.COLUMN_BODY,
+            DailyEntry.COLUMN_TAG,
+            DailyEntry.COLUMN_DATE,
+            DailyEntry.COLUMN_CREATED,
+            DailyEntry.COLUMN_MODIFIED,
+            DailyEntry.COLUMN_PREVIEW,
+            DailyEntry.COLUMN_UUID };
+
+    /** Approximate number of bytes a row takes up besides the characters of its text */
+    private static final int ROW_OVERHEAD_BYTES = 128;
+
+    /** Cached rows by entry id */
+    private final LruCache<Long, Object[]> mRows;
+
+    /** Bumped on every write to the cache */
+    private long mGeneration;
+
+    /** Number of lookups that found the entry, and that did not */
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * Constructs a new instance of {@link EntryCache}.
+     *
+     * @param maxBytes approximate number of bytes the cached entries may take up
+     */
+    EntryCache(int maxBytes) {
+        mRows = new LruCache<Long, Object[]>(maxBytes) {
+            @Override
+            protected int sizeOf(Long id, Object[] row) {
+                int size = ROW_OVERHEAD_BYTES;
+                for (Object value : row) {
+                    if (value instanceof String) {
+                        size += 2 * ((String) value).length();
+                    }
+                }
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Returns the index of the column in a cached row, or -1 if it is not cached.
+     */
+    static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether all the columns of the projection are cached. A null projection stands for
+     * all the columns.
+     */
+    static boolean covers(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (indexOf(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current generation, to pass to {@link #put} after reading the database.
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the cached row of the entry, or null if it is not cached.
+     */
+    synchronized Object[] get(long id) {
+        Object[] row = mRows.get(id);
+        if (row == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return row;
+    }
+
+    /**
+     * Caches a row read from the database, unless the cache was written to since the given
+     * generation.
+     */
+    synchronized void put(long id, Object[] row, long generation) {
+        if (generation == mGeneration) {
+            mRows.put(id, row);
+        }
+    }
+
+    /**
+     * Caches the row of an entry that was just written, or drops the entry if the row is null.
+     * If another write came in since the given generation, taken before the write, the order of
+     * the two is unknown and the entry is dropped as well.
+     */
+    synchronized void write(long id, Object[] row, long generation) {
+        if (generation == mGeneration && row != null) {
+            mRows.put(id, row);
+        } else {
+            mRows.remove(id);
+        }
+        mGeneration++;
+    }
+
+    /**
+     * Returns the cached row of the entry, or null if it is not cached. Unlike {@link #get} it is
+     * not counted as a lookup.
+     */
+    synchronized Object[] peek(long id) {
+        return mRows.get(id);
+    }
+
+    /**
+     * Drops the entry from the cache.
+     */
+    synchronized void evict(long id) {
+        mRows.remove(id);
+        mGeneration++;
+    }
+
+    /**
+     * Drops all entries from the cache.
+     */
+    synchronized void evictAll() {
+        mRows.evictAll();
+        mGeneration++;
+    }
+
+    /** Returns the number of lookups that found the entry */
+    synchronized long hitCount() {
+        return mHits;
+    }
+
+    /** Returns the number of lookups that did not find the entry */
+    synchronized long missCount() {
+        return mMisses;
+    }
+
+    /**
+     * Returns a cursor over the given columns of the row. A null projection stands for all the
+     * columns. The projection must be {@link #covers covered} by the cache.
+     */
+    static MatrixCursor toCursor(Object[] row, String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        if (row != null) {
+            MatrixCursor.RowBuilder builder = cursor.newRow();
+            for (String column : projection) {
+                builder.add(row[indexOf(column)]);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the columns of the row in a Bundle, keyed by column name.
+     */
+    static Bundle toBundle(Object[] row) {
+        Bundle bundle = new Bundle();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            Object value = row[i];
+            if (value instanceof Long) {
+                bundle.putLong(COLUMNS[i], (Long) value);
+            } else {
+                bundle.putString(COLUMNS[i], (String) value);
+            }
+        }
+        return bundle;
+    }
+}
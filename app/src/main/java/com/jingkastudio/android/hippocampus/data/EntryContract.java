@@ -1,6 +1,7 @@
 package com.jingkastudio.android.hippocampus.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -35,6 +36,174 @@ public class EntryContract {
      */
     public static final String PATH_ENTRY = "entries";
 
+    /**
+     * Path appended to {@link #PATH_ENTRY} for looking at the entries of a single day.
+     * For instance, content://com.jingkastudio.android.hippocampus/entries/date/20170601
+     */
+    public static final String PATH_DATE = "date";
+
+    /**
+     * Path appended to {@link #PATH_ENTRY} for a full-text search over the entries.
+     * For instance, content://com.jingkastudio.android.hippocampus/entries/search?q=coffee
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to {@link #PATH_ENTRY} for looking at the entries with a tag.
+     * For instance, content://com.jingkastudio.android.hippocampus/entries/tag/work
+     */
+    public static final String PATH_TAG = "tag";
+
+    /**
+     * Path for looking at the tags in use, with the number of entries they are on.
+     * For instance, content://com.jingkastudio.android.hippocampus/tags
+     */
+    public static final String PATH_TAGS = "tags";
+
+    /**
+     * Path for looking at the per-day summary of the entries.
+     * For instance, content://com.jingkastudio.android.hippocampus/summary?from=20170301&to=20170331
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /**
+     * Path for looking at the drafts the editor autosaves.
+     * For instance, content://com.jingkastudio.android.hippocampus/drafts/3
+     */
+    public static final String PATH_DRAFT = "drafts";
+
+    /**
+     * Path for reading the archive of all entries, see {@link #EXPORT_URI}.
+     * For instance, content://com.jingkastudio.android.hippocampus/export
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path for looking at the log of changes of the entries.
+     * For instance, content://com.jingkastudio.android.hippocampus/changes?since=1200
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * The content URI to open as a stream to read the archive of all entries, one JSON object
+     * per line and per entry. Entries are written in order of id, as they are read, so the
+     * archive of a large journal starts right away. {@link #METHOD_IMPORT_ENTRIES} reads it back.
+     */
+    public static final Uri EXPORT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_EXPORT);
+
+    /** The MIME type of the {@link #EXPORT_URI}, newline-delimited JSON */
+    public static final String EXPORT_MIME_TYPE = "application/x-ndjson";
+
+    /**
+     * Provider method that turns the compressed storage of large entry bodies on or off, with
+     * "true" or "false" as its argument. The bodies of existing entries are converted in the
+     * background. While a body is stored compressed, only queries for that single entry return
+     * it; lists return the body as NULL and searches only match the start of it.
+     */
+    public static final String METHOD_SET_BODY_COMPRESSION = "setBodyCompression";
+
+    /**
+     * Provider method that returns how often queries for a single entry were answered from the
+     * in-memory cache of recent entries, as longs under {@link #KEY_CACHE_HITS} and
+     * {@link #KEY_CACHE_MISSES}.
+     */
+    public static final String METHOD_GET_ENTRY_CACHE_STATS = "getEntryCacheStats";
+
+    /** Key of the number of cache hits in the result of {@link #METHOD_GET_ENTRY_CACHE_STATS} */
+    public static final String KEY_CACHE_HITS = "cache_hits";
+
+    /** Key of the number of cache misses in the result of {@link #METHOD_GET_ENTRY_CACHE_STATS} */
+    public static final String KEY_CACHE_MISSES = "cache_misses";
+
+    /**
+     * Provider method that returns the latencies and row counts of the provider's operations
+     * since the process started, per operation and kind of URI. The longs are keyed
+     * "&lt;operation&gt;.&lt;uri&gt;.&lt;metric&gt;", e.g. "query.entries_date.p99_us", where the
+     * operation is one of query, insert, bulk_insert, update and delete, and the metric one of
+     * count, total_us, p50_us, p90_us, p99_us, max_us, rows and bytes. Percentiles are rounded up
+     * to a power of two microseconds, and bytes are estimated from the first row of each query.
+     */
+    public static final String METHOD_GET_METRICS = "getMetrics";
+
+    /**
+     * Provider method that sets from how many milliseconds, given as its argument, on a query is
+     * logged as slow, see {@link #METHOD_GET_SLOW_QUERIES}. The threshold is kept until the
+     * process ends.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "setSlowQueryThreshold";
+
+    /**
+     * Provider method that returns the latest slow queries, oldest first, as parallel arrays
+     * under the KEY_SLOW_QUERY_* keys.
+     */
+    public static final String METHOD_GET_SLOW_QUERIES = "getSlowQueries";
+
+    /** Key of the times the slow queries finished at, in milliseconds since the epoch */
+    public static final String KEY_SLOW_QUERY_TIMES = "slow_query_times";
+
+    /** Key of the paths of the URIs the slow queries were for */
+    public static final String KEY_SLOW_QUERY_URIS = "slow_query_uris";
+
+    /** Key of the SQL of the slow queries, with their arguments as "?" */
+    public static final String KEY_SLOW_QUERY_SQL = "slow_query_sql";
+
+    /** Key of the durations of the slow queries, in microseconds */
+    public static final String KEY_SLOW_QUERY_DURATIONS = "slow_query_durations_us";
+
+    /** Key of the number of rows of the slow queries, an int array */
+    public static final String KEY_SLOW_QUERY_ROWS = "slow_query_rows";
+
+    /** Key of the query plans of the slow queries, one step per line */
+    public static final String KEY_SLOW_QUERY_PLANS = "slow_query_plans";
+
+    /**
+     * Provider method that tells the provider the changes up to a sequence number, given as its
+     * argument, were read and need not be kept for the reader. Deletions up to there are then
+     * dropped from the log of changes the next time it is compacted, see {@link ChangeEntry}.
+     * There is one such sequence number, so only the one reader that syncs may acknowledge.
+     */
+    public static final String METHOD_ACKNOWLEDGE_CHANGES = "acknowledgeChanges";
+
+    /**
+     * Provider method that adds the entries of an archive, as read from {@link #EXPORT_URI}, to
+     * the journal. The archive is read from the ParcelFileDescriptor under {@link #KEY_ARCHIVE}
+     * in the extras, and the entries are inserted in transactions of a few hundred, so entries
+     * inserted before a malformed line stay. Returns the number of entries inserted as an int
+     * under {@link #KEY_IMPORTED_COUNT}. Takes a while for a large archive; don't call it from
+     * the main thread.
+     */
+    public static final String METHOD_IMPORT_ENTRIES = "importEntries";
+
+    /** Key of the ParcelFileDescriptor of the archive in the extras of {@link #METHOD_IMPORT_ENTRIES} */
+    public static final String KEY_ARCHIVE = "archive";
+
+    /** Key of the number of entries inserted in the result of {@link #METHOD_IMPORT_ENTRIES} */
+    public static final String KEY_IMPORTED_COUNT = "imported_count";
+
+    /**
+     * Provider method that reads a single entry, whose id is the arg, without a cursor. Returns
+     * the {@link DailyEntry#_ID}, {@link DailyEntry#COLUMN_TITLE}, {@link DailyEntry#COLUMN_BODY},
+     * {@link DailyEntry#COLUMN_TAG}, {@link DailyEntry#COLUMN_DATE},
+     * {@link DailyEntry#COLUMN_CREATED}, {@link DailyEntry#COLUMN_MODIFIED},
+     * {@link DailyEntry#COLUMN_PREVIEW} and {@link DailyEntry#COLUMN_UUID} of the entry in a
+     * Bundle, keyed by column name, or null if there is no such entry. The Bundle crosses
+     * processes in one parcel, where a query would set up a cursor window for the one row.
+     */
+    public static final String METHOD_GET_ENTRY = "getEntry";
+
+    /**
+     * Provider method that reads the entries whose ids are under {@link #KEY_IDS} in the extras,
+     * the way {@link #METHOD_GET_ENTRY} does. Returns them as a list of Bundles under
+     * {@link #KEY_ENTRIES}, in the order of the ids; ids without an entry are left out.
+     */
+    public static final String METHOD_GET_ENTRIES = "getEntries";
+
+    /** Key of the ids of the entries to read, a long array, see {@link #METHOD_GET_ENTRIES} */
+    public static final String KEY_IDS = "ids";
+
+    /** Key of the entries read by {@link #METHOD_GET_ENTRIES}, a list of Bundles */
+    public static final String KEY_ENTRIES = "entries";
+
     /**
      * Inner class that defines constant values for the database table.
      */
@@ -43,6 +212,45 @@ public class EntryContract {
         /** The content URI to access the pet data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ENTRY);
 
+        /** The content URI to access the entries of every day */
+        public static final Uri CONTENT_DATE_URI = Uri.withAppendedPath(CONTENT_URI, PATH_DATE);
+
+        /** The content URI to access the entries with a tag, see {@link #buildTagUri(String)} */
+        public static final Uri CONTENT_TAG_URI = Uri.withAppendedPath(CONTENT_URI, PATH_TAG);
+
+        /** The content URI to search the entries, see {@link #buildSearchUri(String)} */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * Query parameter with the maximum number of entries to return, for reading the entries
+         * page by page. See {@link #buildPageUri(Uri, long, int)}.
+         */
+        public static final String QUERY_PARAM_LIMIT = "limit";
+
+        /** Query parameter with the id after which the next page of entries starts */
+        public static final String QUERY_PARAM_AFTER_ID = "after_id";
+
+        /** Query parameter of {@link #CONTENT_SEARCH_URI} that holds the full-text query */
+        public static final String QUERY_PARAM_SEARCH = "q";
+
+        /**
+         * Query parameter of the change notifications for a single entry, telling how the entry
+         * changed: {@link #CHANGE_INSERT}, {@link #CHANGE_UPDATE} or {@link #CHANGE_DELETE}.
+         * Such a notification is sent on the URI of the entry (see {@link #buildChangeUri}), so
+         * observers of a list have to observe the descendants of {@link #CONTENT_URI}. Changes
+         * to any number of entries at once are notified on {@link #CONTENT_URI} itself.
+         */
+        public static final String QUERY_PARAM_CHANGE = "change";
+
+        /** Value of {@link #QUERY_PARAM_CHANGE} for an entry that was inserted */
+        public static final String CHANGE_INSERT = "insert";
+
+        /** Value of {@link #QUERY_PARAM_CHANGE} for an entry that was updated */
+        public static final String CHANGE_UPDATE = "update";
+
+        /** Value of {@link #QUERY_PARAM_CHANGE} for an entry that was deleted */
+        public static final String CHANGE_DELETE = "delete";
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of daily entries.
          */
@@ -78,11 +286,404 @@ public class EntryContract {
         public final static String COLUMN_BODY = "body";
 
         /**
-         * Entry Tag
+         * Entry Tags, as a comma separated list such as "work, family". The provider trims the
+         * tags, drops empty and duplicate ones, and indexes them; see {@link #buildTagUri}.
          * Type: TEXT
          */
         public final static String COLUMN_TAG = "tag";
 
+        /**
+         * Day the entry belongs to, encoded as yyyymmdd (see {@link #toDateKey(int, int, int)}).
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DATE = "date";
+
+        /**
+         * Creation time of the entry, in milliseconds since the epoch.
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CREATED = "created";
+
+        /**
+         * Last modification time of the entry, in milliseconds since the epoch.
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MODIFIED = "modified";
+
+        /**
+         * Start of the body on a single line, at most a few sentences long, for showing the entry
+         * in a list without reading its full body. Maintained by the provider whenever the body
+         * is written.
+         * Type: TEXT
+         */
+        public final static String COLUMN_PREVIEW = "preview";
+
+        /**
+         * Excerpt of the entry around the search terms, with the matches wrapped in
+         * &lt;b&gt; tags. Only available on {@link #CONTENT_SEARCH_URI}, not stored.
+         * Type: TEXT
+         */
+        public final static String COLUMN_SNIPPET = "snippet";
+
+        /**
+         * Identifier of the entry that is the same on every device the journal is synced to.
+         * Assigned by the provider when the entry is inserted, unless the insert gives one;
+         * it can't be changed afterwards.
+         * Type: TEXT
+         */
+        public final static String COLUMN_UUID = "uuid";
+
+        /**
+         * {@link #COLUMN_MODIFIED} time of the version of the entry that was last pulled from a
+         * sync remote, NULL if none was. While the two are equal, the entry has no changes of its
+         * own to push. Writing it alone is not a change of the entry.
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SYNCED_MODIFIED = "synced_modified";
+
+        /**
+         * Encodes a calendar day as the yyyymmdd key stored in {@link #COLUMN_DATE}.
+         *
+         * @param year       the year, e.g. 2017
+         * @param month      the month of the year, from 1 to 12
+         * @param dayOfMonth the day of the month, from 1 to 31
+         */
+        public static int toDateKey(int year, int month, int dayOfMonth) {
+            return year * 10000 + month * 100 + dayOfMonth;
+        }
+
+        /**
+         * Returns the content URI for the entries of the given day.
+         *
+         * @param dateKey the day, encoded with {@link #toDateKey(int, int, int)}
+         */
+        public static Uri buildDateUri(int dateKey) {
+            return Uri.withAppendedPath(CONTENT_DATE_URI, String.valueOf(dateKey));
+        }
+
+        /**
+         * Returns the content URI for one page of entries of the given list URI, such as
+         * {@link #CONTENT_URI} or a {@link #buildDateUri(int)}. Pages are ordered by id.
+         *
+         * @param listUri  content URI of the entries to page through
+         * @param afterId  id of the last entry of the previous page, or -1 for the first page
+         * @param pageSize maximum number of entries in the page
+         */
+        public static Uri buildPageUri(Uri listUri, long afterId, int pageSize) {
+            Uri.Builder builder = listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(pageSize));
+            if (afterId != -1) {
+                builder.appendQueryParameter(QUERY_PARAM_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the content URI for the entries with the given tag, ordered by id. Tags are
+         * matched ignoring the case of ASCII letters. The tag is encoded, so any name works.
+         *
+         * @param tag the name of the tag
+         */
+        public static Uri buildTagUri(String tag) {
+            return CONTENT_TAG_URI.buildUpon()
+                    .appendPath(tag)
+                    .build();
+        }
+
+        /**
+         * Returns the URI a change of a single entry is notified on.
+         *
+         * @param id     id of the entry that changed
+         * @param change how it changed, e.g. {@link #CHANGE_UPDATE}
+         */
+        public static Uri buildChangeUri(long id, String change) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_CHANGE, change)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI that searches the title and body of the entries. Results are
+         * ranked by how often the terms occur in the entry.
+         *
+         * @param query a SQLite full-text query, e.g. "coffee" or "morning run*"
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_SEARCH, query)
+                    .build();
+        }
+
     }
-    
+
+    /**
+     * Inner class that defines constant values for the drafts table. A draft holds the unsaved
+     * text of the editor, so it survives the app being killed. There is at most one draft per
+     * entry, and one for a new entry.
+     *
+     * Drafts are written by updating their URI, which creates the draft if needed. Changes of
+     * drafts are not notified, as the editor only reads its draft when it opens.
+     */
+    public static final class DraftEntry implements BaseColumns {
+
+        /** The content URI to access the drafts */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_DRAFT);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single draft.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DRAFT;
+
+        /** Name of database table for drafts */
+        public final static String TABLE_NAME = "drafts";
+
+        /** Id of the draft of a new entry, which has no id of its own yet */
+        public static final long NEW_ENTRY_ID = 0;
+
+        /**
+         * Id of the entry the draft is for, or {@link #NEW_ENTRY_ID}.
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Unsaved title
+         * Type: TEXT
+         */
+        public final static String COLUMN_TITLE = "title";
+
+        /**
+         * Unsaved body
+         * Type: TEXT
+         */
+        public final static String COLUMN_BODY = "body";
+
+        /**
+         * Unsaved tags, as a comma separated list
+         * Type: TEXT
+         */
+        public final static String COLUMN_TAG = "tag";
+
+        /**
+         * Time the draft was saved, in milliseconds since the epoch.
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MODIFIED = "modified";
+
+        /**
+         * Returns the content URI of the draft of the given entry.
+         *
+         * @param entryId id of the entry, or {@link #NEW_ENTRY_ID} for a new entry
+         */
+        public static Uri buildDraftUri(long entryId) {
+            return ContentUris.withAppendedId(CONTENT_URI, entryId);
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the per-day summary table. It holds a row for
+     * every day with entries, kept up to date as entries are written, so a calendar can tell which
+     * days have entries without counting them.
+     */
+    public static final class DaySummaryEntry {
+
+        /**
+         * The content URI to read the summary of the days, ordered by day. Narrow it down to a
+         * range of days with {@link #buildRangeUri}.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUMMARY);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the summary of several days.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /** Query parameter with the first day of the range, as a {@link DailyEntry#COLUMN_DATE} key */
+        public static final String QUERY_PARAM_FROM = "from";
+
+        /** Query parameter with the last day of the range, as a {@link DailyEntry#COLUMN_DATE} key */
+        public static final String QUERY_PARAM_TO = "to";
+
+        /** Name of database table for the summary of the days */
+        public final static String TABLE_NAME = "day_summary";
+
+        /**
+         * Day, encoded the same as {@link DailyEntry#COLUMN_DATE}. Unique.
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DATE = "date";
+
+        /**
+         * Number of entries of the day
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ENTRY_COUNT = "entry_count";
+
+        /**
+         * Number of words in the bodies of the entries of the day
+         * Type: INTEGER
+         */
+        public final static String COLUMN_WORD_COUNT = "word_count";
+
+        /**
+         * Last time an entry of the day was written or deleted, in milliseconds since the epoch
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MODIFIED = "modified";
+
+        /**
+         * Returns the content URI for the summary of the days from the first to the last one,
+         * both included.
+         *
+         * @param fromDateKey first day, see {@link DailyEntry#toDateKey}
+         * @param toDateKey   last day, see {@link DailyEntry#toDateKey}
+         */
+        public static Uri buildRangeUri(int fromDateKey, int toDateKey) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_FROM, String.valueOf(fromDateKey))
+                    .appendQueryParameter(QUERY_PARAM_TO, String.valueOf(toDateKey))
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the tags table. The tags of an entry are
+     * written through {@link DailyEntry#COLUMN_TAG}; {@link #CONTENT_URI} lists the tags in use.
+     */
+    public static final class TagEntry implements BaseColumns {
+
+        /**
+         * The content URI to read the tags in use, with their {@link #COLUMN_ENTRY_COUNT},
+         * ordered by name
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_TAGS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of tags.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TAGS;
+
+        /** Name of database table for tags */
+        public final static String TABLE_NAME = "tags";
+
+        /**
+         * Unique ID number for the tag (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Tag name, unique ignoring case
+         * Type: TEXT
+         */
+        public final static String COLUMN_NAME = "name";
+
+        /**
+         * Number of entries with the tag. Only available on {@link #CONTENT_URI}, not stored.
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ENTRY_COUNT = "entry_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the log of changes of the entries. Every
+     * insert, update and delete of an entry appends a change, in the same transaction as the
+     * write, with a sequence number higher than any before. A reader that remembers the highest
+     * sequence number it has seen catches up by reading the changes since then, and reads back
+     * only the entries they name.
+     *
+     * The log is compacted from time to time down to the latest change of each entry. That
+     * keeps catching up correct: a change that is dropped is followed by a later one of the
+     * same entry. Deletions are dropped as well once they are acknowledged with
+     * {@link EntryContract#METHOD_ACKNOWLEDGE_CHANGES}; a reader that starts over reads all
+     * entries first anyway, and never needs the deletions of entries it didn't know.
+     */
+    public static final class ChangeEntry implements BaseColumns {
+
+        /**
+         * The content URI to read the changes, in order of sequence number. Narrow it down to
+         * the changes after a sequence number with {@link #buildSinceUri}.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /** Query parameter with the sequence number the changes are read after */
+        public static final String QUERY_PARAM_SINCE = "since";
+
+        /** Query parameter with the maximum number of changes to return */
+        public static final String QUERY_PARAM_LIMIT = "limit";
+
+        /** Name of database table for the changes */
+        public final static String TABLE_NAME = "changes";
+
+        /**
+         * Sequence number of the change, higher than that of every change before it. Numbers are
+         * never reused, also not after a compaction.
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the entry that changed. The entry is gone for a {@link DailyEntry#CHANGE_DELETE}.
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ENTRY_ID = "entry_id";
+
+        /**
+         * {@link DailyEntry#COLUMN_UUID} of the entry that changed, NULL if it had none yet
+         * Type: TEXT
+         */
+        public final static String COLUMN_ENTRY_UUID = "entry_uuid";
+
+        /**
+         * How the entry changed: {@link DailyEntry#CHANGE_INSERT}, {@link DailyEntry#CHANGE_UPDATE}
+         * or {@link DailyEntry#CHANGE_DELETE}
+         * Type: TEXT
+         */
+        public final static String COLUMN_CHANGE = "change";
+
+        /**
+         * Time of the change, in milliseconds since the epoch. For a delete it is the version of
+         * the deletion: later than the last modification of the entry, and, for a deletion
+         * pulled by a sync, the version it was pulled with.
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TIME = "time";
+
+        /**
+         * Returns the content URI for the changes after the given sequence number.
+         *
+         * @param sequence highest {@link #_ID} already seen, 0 for all changes
+         */
+        public static Uri buildSinceUri(long sequence) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_SINCE, String.valueOf(sequence))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI for at most the given number of changes after the given
+         * sequence number, to read the changes batch by batch.
+         *
+         * @param sequence highest {@link #_ID} already seen, 0 for all changes
+         * @param limit    maximum number of changes to return
+         */
+        public static Uri buildSinceUri(long sequence, int limit) {
+            return buildSinceUri(sequence).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
+
 }
@@ -1,10 +1,18 @@
 package com.jingkastudio.android.hippocampus.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.jingkastudio.android.hippocampus.data.EntryContract.ChangeEntry;
 import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DaySummaryEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DraftEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.TagEntry;
+
+import java.util.Calendar;
 
 /**
  * Database helper for the app. Manages database creation and version management.
@@ -13,12 +21,95 @@ import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
 public class EntryDbHelper extends SQLiteOpenHelper {
 
     /** Name of the database file */
-    private static final String DATABASE_NAME = "hippo.db";
+    static final String DATABASE_NAME = "hippo.db";
 
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 12;
+
+    /**
+     * Name of the full-text index over the title and body of the entries. It is an external
+     * content FTS4 table: the text itself stays in the entries table (read through
+     * {@link #VIEW_ENTRIES_TEXT}) and triggers keep the index in sync with it.
+     */
+    static final String TABLE_ENTRIES_FTS = "entries_fts";
+
+    /** Name of the view the full-text index reads the text of the entries from */
+    static final String VIEW_ENTRIES_TEXT = "entries_text";
+
+    /**
+     * Name of the table of the inflated bodies staged for removal from the full-text index, see
+     * {@link SearchIndex}. It is empty outside of a removal.
+     */
+    static final String TABLE_STAGED_BODIES = "entries_fts_staged";
+
+    /**
+     * Body of the entry deflated, when it is stored compressed (see {@link BodyCompression}).
+     * {@link DailyEntry#COLUMN_BODY} is NULL then.
+     * Type: BLOB
+     */
+    static final String COLUMN_BODY_COMPRESSED = "body_z";
+
+    /**
+     * Number of words in the body of the entry, counted by the provider when the body is written.
+     * Kept so the per-day summary can be maintained by triggers, which can't count words.
+     * Type: INTEGER
+     */
+    static final String COLUMN_WORD_COUNT = "word_count";
+
+    /** Name of the table that links the entries to their tags */
+    static final String TABLE_ENTRY_TAGS = "entry_tags";
+
+    /**
+     * Id of the entry in {@link #TABLE_ENTRY_TAGS}.
+     * Type: INTEGER
+     */
+    static final String COLUMN_ENTRY_ID = "entry_id";
+
+    /**
+     * Id of the tag in {@link #TABLE_ENTRY_TAGS}.
+     * Type: INTEGER
+     */
+    static final String COLUMN_TAG_ID = "tag_id";
+
+    /** Name of the index used to read the tags of a single entry */
+    private static final String INDEX_ENTRY_TAGS_ENTRY = "entry_tags_entry_index";
+
+    /** Name of the index used to read the entries of a single day */
+    private static final String INDEX_ENTRY_DATE = "entries_date_index";
+
+    /** The current time in milliseconds since the epoch, in SQL; strftime('%s') is to the second */
+    private static final String SQL_NOW_MILLIS =
+            "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /** Name of the index used to find an entry by its UUID */
+    private static final String INDEX_ENTRY_UUID = "entries_uuid_index";
+
+    /** Name of the index used to find the later changes of an entry when compacting the log */
+    private static final String INDEX_CHANGES_ENTRY = "changes_entry_index";
+
+    /**
+     * Number of changes {@link #compactChangeLog} looks at per statement. Each statement is a
+     * write transaction of its own, short enough not to hold up a save.
+     */
+    private static final int COMPACT_STEP_CHANGES = 1000;
+
+    /**
+     * Number of pages the write-ahead log may grow to before the writer checkpoints it back into
+     * the database. Smaller than SQLite's default of 1000 so readers have fewer log frames to
+     * look through, while a save from the editor still never triggers a checkpoint by itself.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 500;
+
+    /** Size in bytes the write-ahead log is truncated to after a checkpoint */
+    private static final long WAL_SIZE_LIMIT_BYTES = 2 * 1024 * 1024;
+
+    /** Value of "PRAGMA auto_vacuum" when free pages can be returned by incremental vacuum */
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    /** Whether {@link #onCreate} just created the database, so it is still empty on open */
+    private boolean mCreated;
 
     /**
      * Constructs a new instance of {@link EntryDbHelper}.
@@ -26,7 +117,66 @@ public class EntryDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public EntryDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Constructs a new instance of {@link EntryDbHelper} for the database file with the given
+     * name, e.g. a scratch database for benchmarks.
+     *
+     * @param context of the app
+     * @param name    of the database file
+     */
+    EntryDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+
+        // With write-ahead logging a writer appends to a separate log instead of locking the
+        // database file, so the CursorLoader reads of the catalog run on their own pooled
+        // connections while the editor saves, and never wait for the write to finish.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * This is called when the database connection is being configured, before the tables are
+     * created or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (db.isReadOnly() || !db.isWriteAheadLoggingEnabled()) {
+            return;
+        }
+
+        // In WAL mode NORMAL is still safe against corruption; it only syncs at checkpoints
+        // instead of on every commit, which takes the fsync off the save path.
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        runPragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        runPragma(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES);
+    }
+
+    /**
+     * This is called when the database has been opened, outside of the transaction that created
+     * or upgraded it.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        // Write-ahead logging fixed the format of the new file before its tables were created,
+        // so incremental vacuum takes a VACUUM, which only rewrites the tables just created
+        if (mCreated && !db.isReadOnly()) {
+            mCreated = false;
+            enableIncrementalVacuum(db);
+        }
+    }
+
+    /**
+     * Runs a pragma that reports its new value. execSQL() refuses statements returning rows.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -34,22 +184,550 @@ public class EntryDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        // Create a String that contains the SQL statement to create the pets table
-        String SQL_CREATE_PETS_TABLE =  "CREATE TABLE " + DailyEntry.TABLE_NAME + " ("
+        mCreated = true;
+
+        // Create a String that contains the SQL statement to create the entries table
+        String SQL_CREATE_ENTRIES_TABLE =  "CREATE TABLE " + DailyEntry.TABLE_NAME + " ("
                 + DailyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + DailyEntry.COLUMN_TITLE + " TEXT NOT NULL, "
                 + DailyEntry.COLUMN_BODY + " TEXT, "
-                + DailyEntry.COLUMN_TAG + " TEXT);";
+                + DailyEntry.COLUMN_TAG + " TEXT, "
+                + DailyEntry.COLUMN_DATE + " INTEGER NOT NULL DEFAULT 0, "
+                + DailyEntry.COLUMN_CREATED + " INTEGER NOT NULL DEFAULT 0, "
+                + DailyEntry.COLUMN_MODIFIED + " INTEGER NOT NULL DEFAULT 0, "
+                + DailyEntry.COLUMN_PREVIEW + " TEXT, "
+                + COLUMN_BODY_COMPRESSED + " BLOB, "
+                + COLUMN_WORD_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + DailyEntry.COLUMN_UUID + " TEXT, "
+                + DailyEntry.COLUMN_SYNCED_MODIFIED + " INTEGER);";
 
         // Execute the SQL statement
-        sqLiteDatabase.execSQL(SQL_CREATE_PETS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ENTRIES_TABLE);
+        createDateIndex(sqLiteDatabase);
+        createUuidIndex(sqLiteDatabase);
+        createStagedBodiesTable(sqLiteDatabase);
+        createSearchView(sqLiteDatabase, true);
+        createSearchTable(sqLiteDatabase, VIEW_ENTRIES_TEXT);
+        createSearchTriggers(sqLiteDatabase, true, true);
+        createDraftTable(sqLiteDatabase, true);
+        createTagTables(sqLiteDatabase);
+        createDaySummary(sqLiteDatabase);
+        SchemaBackfills.createTable(sqLiteDatabase);
+        createChangeLog(sqLiteDatabase, true);
+        createChangeLogIndex(sqLiteDatabase);
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * This is called when the database needs to be upgraded. Every step upgrades the schema by
+     * one version, so a database that is several versions behind runs through all of them.
+     *
+     * The upgrade blocks the first open of the database, so the steps only change the schema.
+     * Filling new columns and tables from the existing entries is left to
+     * {@link SchemaBackfills}, which the provider runs in the background afterwards.
      */
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-        // The database is still at version 1, so there's nothing to do be done here.
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // Any step may register backfills, whichever version the upgrade starts from
+        SchemaBackfills.createTable(sqLiteDatabase);
+
+        switch (oldVersion) {
+            case 1:
+                upgradeToVersion2(sqLiteDatabase);
+            case 2:
+                upgradeToVersion3(sqLiteDatabase);
+            case 3:
+                upgradeToVersion4(sqLiteDatabase);
+            case 4:
+                upgradeToVersion5(sqLiteDatabase);
+            case 5:
+                createDraftTable(sqLiteDatabase, false);
+            case 6:
+                upgradeToVersion7(sqLiteDatabase);
+            case 7:
+                upgradeToVersion8(sqLiteDatabase);
+            case 8:
+                // Version 9 only adds the table of the backfills, created above
+            case 9:
+                // Version 10 adds the log of changes. Earlier changes are not in it; a reader
+                // starts with all entries anyway.
+                createChangeLog(sqLiteDatabase, false);
+            case 10:
+                upgradeToVersion11(sqLiteDatabase);
+            case 11:
+                upgradeToVersion12(sqLiteDatabase);
+                break;
+        }
+    }
+
+    /**
+     * Version 2 adds the day, creation and modification time of an entry, and an index on the
+     * day so that the entries of one day are read with a single index range scan.
+     * Existing entries are filed under the day of the upgrade. That is a single statement
+     * without any per-entry work, and the lists can't show the entries without their day, so it
+     * is not left to a backfill.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + DailyEntry.TABLE_NAME + " ADD COLUMN "
+                + DailyEntry.COLUMN_DATE + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + DailyEntry.TABLE_NAME + " ADD COLUMN "
+                + DailyEntry.COLUMN_CREATED + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + DailyEntry.TABLE_NAME + " ADD COLUMN "
+                + DailyEntry.COLUMN_MODIFIED + " INTEGER NOT NULL DEFAULT 0");
+
+        Calendar today = Calendar.getInstance();
+        int dateKey = DailyEntry.toDateKey(today.get(Calendar.YEAR),
+                today.get(Calendar.MONTH) + 1, today.get(Calendar.DAY_OF_MONTH));
+        long now = today.getTimeInMillis();
+        db.execSQL("UPDATE " + DailyEntry.TABLE_NAME + " SET "
+                + DailyEntry.COLUMN_DATE + " = ?, "
+                + DailyEntry.COLUMN_CREATED + " = ?, "
+                + DailyEntry.COLUMN_MODIFIED + " = ?",
+                new Object[] { dateKey, now, now });
+
+        createDateIndex(db);
+    }
+
+    /**
+     * Version 3 adds the full-text index. The existing entries are indexed by a backfill.
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        createSearchTable(db, DailyEntry.TABLE_NAME);
+        createSearchTriggers(db, false, false);
+        SchemaBackfills.register(db, SchemaBackfills.SEARCH_INDEX);
+    }
+
+    /**
+     * Version 4 adds the preview of the body, so lists don't need to read the full bodies.
+     * The previews of existing entries are computed by a backfill.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + DailyEntry.TABLE_NAME + " ADD COLUMN "
+                + DailyEntry.COLUMN_PREVIEW + " TEXT");
+        SchemaBackfills.register(db, SchemaBackfills.PREVIEWS);
+    }
+
+    /**
+     * Version 5 adds the column for compressed bodies. The full-text index now reads its text
+     * through {@link #VIEW_ENTRIES_TEXT}, which takes the preview in place of a compressed body,
+     * so the index is recreated on top of the view and filled again by a backfill.
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + DailyEntry.TABLE_NAME + " ADD COLUMN "
+                + COLUMN_BODY_COMPRESSED + " BLOB");
+        dropSearchTriggers(db);
+        db.execSQL("DROP TABLE " + TABLE_ENTRIES_FTS);
+        createSearchView(db, false);
+        createSearchTable(db, VIEW_ENTRIES_TEXT);
+        createSearchTriggers(db, true, false);
+        SchemaBackfills.register(db, SchemaBackfills.SEARCH_INDEX);
+    }
+
+    /**
+     * Version 7 adds the tables of the tags, and the tags to the drafts. The comma separated tags
+     * of the existing entries are indexed by a backfill.
+     */
+    private void upgradeToVersion7(SQLiteDatabase db) {
+        createTagTables(db);
+        db.execSQL("ALTER TABLE " + DraftEntry.TABLE_NAME + " ADD COLUMN "
+                + DraftEntry.COLUMN_TAG + " TEXT");
+        SchemaBackfills.register(db, SchemaBackfills.TAGS);
+    }
+
+    /**
+     * Version 8 adds the word count of the entries and the summary of the days. A backfill counts
+     * the words of the existing entries and adds them to the summary.
+     */
+    private void upgradeToVersion8(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + DailyEntry.TABLE_NAME + " ADD COLUMN "
+                + COLUMN_WORD_COUNT + " INTEGER NOT NULL DEFAULT 0");
+        createDaySummary(db);
+        SchemaBackfills.register(db, SchemaBackfills.WORD_COUNTS);
+    }
+
+    /**
+     * Version 11 adds the UUID of the entries and the version last synced, and logs the UUID
+     * with their changes. A backfill assigns UUIDs to the existing entries.
+     */
+    private void upgradeToVersion11(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + DailyEntry.TABLE_NAME + " ADD COLUMN "
+                + DailyEntry.COLUMN_UUID + " TEXT");
+        db.execSQL("ALTER TABLE " + DailyEntry.TABLE_NAME + " ADD COLUMN "
+                + DailyEntry.COLUMN_SYNCED_MODIFIED + " INTEGER");
+        createUuidIndex(db);
+        db.execSQL("ALTER TABLE " + ChangeEntry.TABLE_NAME + " ADD COLUMN "
+                + ChangeEntry.COLUMN_ENTRY_UUID + " TEXT");
+        dropChangeTriggers(db);
+        createChangeTriggers(db, true);
+        SchemaBackfills.register(db, SchemaBackfills.UUIDS);
+    }
+
+    /**
+     * Version 12 logs changes to the millisecond, versions deletions after the last modification
+     * of the entry, and leaves rewrites of the stored body and of the tags by their backfill
+     * alone (see {@link #createChangeTriggers}). It indexes the log by entry for
+     * {@link #compactChangeLog}. The full text of compressed bodies is indexed in place of
+     * their preview, so the index is recreated and filled again by a backfill.
+     */
+    private void upgradeToVersion12(SQLiteDatabase db) {
+        dropChangeTriggers(db);
+        createChangeTriggers(db, true);
+        createChangeLogIndex(db);
+        dropSearchTriggers(db);
+        db.execSQL("DROP TABLE " + TABLE_ENTRIES_FTS);
+        db.execSQL("DROP VIEW " + VIEW_ENTRIES_TEXT);
+        createStagedBodiesTable(db);
+        createSearchView(db, true);
+        createSearchTable(db, VIEW_ENTRIES_TEXT);
+        createSearchTriggers(db, true, true);
+        SchemaBackfills.register(db, SchemaBackfills.SEARCH_INDEX);
+    }
+
+    /**
+     * Creates the table of editor drafts (version 6). It is keyed by the id of the entry being
+     * edited, so saving a draft replaces the previous one.
+     *
+     * @param withTag whether the drafts hold tags, as they do since version 7
+     */
+    private void createDraftTable(SQLiteDatabase db, boolean withTag) {
+        db.execSQL("CREATE TABLE " + DraftEntry.TABLE_NAME + " ("
+                + DraftEntry._ID + " INTEGER PRIMARY KEY, "
+                + DraftEntry.COLUMN_TITLE + " TEXT, "
+                + DraftEntry.COLUMN_BODY + " TEXT, "
+                + (withTag ? DraftEntry.COLUMN_TAG + " TEXT, " : "")
+                + DraftEntry.COLUMN_MODIFIED + " INTEGER NOT NULL DEFAULT 0);");
+    }
+
+    /**
+     * Creates the tables of the tags. A tag name is stored once, ignoring case. The primary key
+     * of the join table is an index on (tag, entry), so the entries with a tag are one index
+     * range read; the index on the entry serves replacing the tags of an entry. A trigger unlinks
+     * the tags of deleted entries.
+     */
+    private void createTagTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TagEntry.TABLE_NAME + " ("
+                + TagEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + TagEntry.COLUMN_NAME + " TEXT NOT NULL UNIQUE COLLATE NOCASE);");
+        db.execSQL("CREATE TABLE " + TABLE_ENTRY_TAGS + " ("
+                + COLUMN_TAG_ID + " INTEGER NOT NULL, "
+                + COLUMN_ENTRY_ID + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_TAG_ID + ", " + COLUMN_ENTRY_ID + "));");
+        db.execSQL("CREATE INDEX " + INDEX_ENTRY_TAGS_ENTRY + " ON " + TABLE_ENTRY_TAGS + " ("
+                + COLUMN_ENTRY_ID + ");");
+        db.execSQL("CREATE TRIGGER entry_tags_after_delete AFTER DELETE ON "
+                + DailyEntry.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_ENTRY_TAGS + " WHERE "
+                + COLUMN_ENTRY_ID + " = old." + DailyEntry._ID + "; END;");
+    }
+
+    /**
+     * The unique index on the UUID finds the entry a synced change is for. Entries without a UUID
+     * yet don't collide, as NULLs are distinct.
+     */
+    private void createUuidIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_ENTRY_UUID + " ON " + DailyEntry.TABLE_NAME
+                + " (" + DailyEntry.COLUMN_UUID + ");");
+    }
+
+    /**
+     * The index on (date, _id) answers "entries of a day" as one range read, already sorted by id.
+     */
+    private void createDateIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_ENTRY_DATE + " ON " + DailyEntry.TABLE_NAME + " ("
+                + DailyEntry.COLUMN_DATE + ", " + DailyEntry._ID + ");");
+    }
+
+    /**
+     * Creates the full-text index, reading the indexed text from the given content table.
+     */
+    private void createSearchTable(SQLiteDatabase db, String contentTable) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_ENTRIES_FTS + " USING fts4(content=\""
+                + contentTable + "\", "
+                + DailyEntry.COLUMN_TITLE + ", "
+                + DailyEntry.COLUMN_BODY + ");");
+    }
+
+    /**
+     * Creates the view the full-text index reads its text from. A compressed body can't be read
+     * in SQL; the view takes its inflated text from {@link #TABLE_STAGED_BODIES} while it is
+     * staged, and the preview otherwise. So snippets of compressed entries show their preview.
+     *
+     * @param withStagedBodies whether the view reads the staged bodies, as it does since
+     *                         version 12; before, the preview was indexed in place of a
+     *                         compressed body
+     */
+    private void createSearchView(SQLiteDatabase db, boolean withStagedBodies) {
+        String staged = withStagedBodies
+                ? "(SELECT " + DailyEntry.COLUMN_BODY + " FROM " + TABLE_STAGED_BODIES
+                        + " WHERE rowid = " + DailyEntry.TABLE_NAME + "." + DailyEntry._ID + "), "
+                : "";
+        db.execSQL("CREATE VIEW " + VIEW_ENTRIES_TEXT + " AS SELECT "
+                + DailyEntry._ID + " AS rowid, "
+                + DailyEntry.COLUMN_TITLE + ", "
+                + "COALESCE(" + DailyEntry.COLUMN_BODY + ", " + staged
+                + DailyEntry.COLUMN_PREVIEW + ") AS "
+                + DailyEntry.COLUMN_BODY + " FROM " + DailyEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Creates the table of the bodies staged for removal from the full-text index (version 12).
+     */
+    private void createStagedBodiesTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_STAGED_BODIES + " ("
+                + "rowid INTEGER PRIMARY KEY, "
+                + DailyEntry.COLUMN_BODY + " TEXT);");
+    }
+
+    /**
+     * Creates the triggers that keep the full-text index in sync with the entries table.
+     * Updates only touch the index when the indexed text changes. Old text is removed before the
+     * row changes, as the index reads it back from its content table to remove it. Entries the
+     * {@link SchemaBackfills#SEARCH_INDEX} backfill has not indexed yet are left alone.
+     *
+     * @param withPreview    whether the preview is indexed in place of a missing body, as it is
+     *                       by {@link #VIEW_ENTRIES_TEXT}
+     * @param skipCompressed whether entries with a compressed body are left to
+     *                       {@link SearchIndex}, as they are since version 12
+     */
+    private void createSearchTriggers(SQLiteDatabase db, boolean withPreview,
+                                      boolean skipCompressed) {
+        String indexedBody = withPreview
+                ? "COALESCE(new." + DailyEntry.COLUMN_BODY + ", new." + DailyEntry.COLUMN_PREVIEW + ")"
+                : "new." + DailyEntry.COLUMN_BODY;
+        String deleteOld = "DELETE FROM " + TABLE_ENTRIES_FTS + " WHERE docid = old." + DailyEntry._ID + "; ";
+        String insertNew = "INSERT INTO " + TABLE_ENTRIES_FTS + "(docid, "
+                + DailyEntry.COLUMN_TITLE + ", " + DailyEntry.COLUMN_BODY + ") VALUES(new."
+                + DailyEntry._ID + ", new." + DailyEntry.COLUMN_TITLE + ", " + indexedBody + "); ";
+        String ofText = " OF " + DailyEntry.COLUMN_TITLE + ", " + DailyEntry.COLUMN_BODY
+                + (withPreview ? ", " + DailyEntry.COLUMN_PREVIEW : "");
+
+        String whenOldIndexed = SchemaBackfills.guard(SchemaBackfills.SEARCH_INDEX, "old");
+        String whenNewIndexed = SchemaBackfills.guard(SchemaBackfills.SEARCH_INDEX, "new");
+        if (skipCompressed) {
+            whenOldIndexed += " AND old." + COLUMN_BODY_COMPRESSED + " IS NULL";
+            whenNewIndexed += " AND new." + COLUMN_BODY_COMPRESSED + " IS NULL";
+        }
+
+        db.execSQL("CREATE TRIGGER entries_fts_before_update BEFORE UPDATE" + ofText + " ON "
+                + DailyEntry.TABLE_NAME + whenOldIndexed + " BEGIN " + deleteOld + "END;");
+        db.execSQL("CREATE TRIGGER entries_fts_before_delete BEFORE DELETE ON "
+                + DailyEntry.TABLE_NAME + whenOldIndexed + " BEGIN " + deleteOld + "END;");
+        db.execSQL("CREATE TRIGGER entries_fts_after_update AFTER UPDATE" + ofText + " ON "
+                + DailyEntry.TABLE_NAME + whenNewIndexed + " BEGIN " + insertNew + "END;");
+        db.execSQL("CREATE TRIGGER entries_fts_after_insert AFTER INSERT ON "
+                + DailyEntry.TABLE_NAME + whenNewIndexed + " BEGIN " + insertNew + "END;");
+    }
+
+    /**
+     * Drops the triggers created by {@link #createSearchTriggers}.
+     */
+    private void dropSearchTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS entries_fts_before_update");
+        db.execSQL("DROP TRIGGER IF EXISTS entries_fts_before_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS entries_fts_after_update");
+        db.execSQL("DROP TRIGGER IF EXISTS entries_fts_after_insert");
+    }
+
+    /**
+     * Creates the summary of the days, and the triggers that keep it up to date with every write
+     * of the entries, whichever way it is made. A day's row is there while the day has entries.
+     * Entries the {@link SchemaBackfills#WORD_COUNTS} backfill has not counted yet are left out.
+     */
+    private void createDaySummary(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + DaySummaryEntry.TABLE_NAME + " ("
+                + DaySummaryEntry.COLUMN_DATE + " INTEGER PRIMARY KEY, "
+                + DaySummaryEntry.COLUMN_ENTRY_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + DaySummaryEntry.COLUMN_WORD_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + DaySummaryEntry.COLUMN_MODIFIED + " INTEGER NOT NULL DEFAULT 0);");
+
+        // The deletion time, as the entry that is gone has no modification time to go by
+        String now = "CAST(strftime('%s', 'now') AS INTEGER) * 1000";
+        String addNew = "INSERT OR IGNORE INTO " + DaySummaryEntry.TABLE_NAME + " ("
+                + DaySummaryEntry.COLUMN_DATE + ") VALUES (new." + DailyEntry.COLUMN_DATE + "); "
+                + "UPDATE " + DaySummaryEntry.TABLE_NAME + " SET "
+                + DaySummaryEntry.COLUMN_ENTRY_COUNT + " = "
+                + DaySummaryEntry.COLUMN_ENTRY_COUNT + " + 1, "
+                + DaySummaryEntry.COLUMN_WORD_COUNT + " = "
+                + DaySummaryEntry.COLUMN_WORD_COUNT + " + new." + COLUMN_WORD_COUNT + ", "
+                + DaySummaryEntry.COLUMN_MODIFIED + " = max(" + DaySummaryEntry.COLUMN_MODIFIED
+                + ", new." + DailyEntry.COLUMN_MODIFIED + ") WHERE "
+                + DaySummaryEntry.COLUMN_DATE + " = new." + DailyEntry.COLUMN_DATE + "; ";
+        String removeOld = "UPDATE " + DaySummaryEntry.TABLE_NAME + " SET "
+                + DaySummaryEntry.COLUMN_ENTRY_COUNT + " = "
+                + DaySummaryEntry.COLUMN_ENTRY_COUNT + " - 1, "
+                + DaySummaryEntry.COLUMN_WORD_COUNT + " = "
+                + DaySummaryEntry.COLUMN_WORD_COUNT + " - old." + COLUMN_WORD_COUNT + ", "
+                + DaySummaryEntry.COLUMN_MODIFIED + " = max(" + DaySummaryEntry.COLUMN_MODIFIED
+                + ", " + now + ") WHERE "
+                + DaySummaryEntry.COLUMN_DATE + " = old." + DailyEntry.COLUMN_DATE + "; "
+                + "DELETE FROM " + DaySummaryEntry.TABLE_NAME + " WHERE "
+                + DaySummaryEntry.COLUMN_DATE + " = old." + DailyEntry.COLUMN_DATE + " AND "
+                + DaySummaryEntry.COLUMN_ENTRY_COUNT + " <= 0; ";
+
+        db.execSQL("CREATE TRIGGER day_summary_after_insert AFTER INSERT ON "
+                + DailyEntry.TABLE_NAME + SchemaBackfills.guard(SchemaBackfills.WORD_COUNTS, "new")
+                + " BEGIN " + addNew + "END;");
+        db.execSQL("CREATE TRIGGER day_summary_after_delete AFTER DELETE ON "
+                + DailyEntry.TABLE_NAME + SchemaBackfills.guard(SchemaBackfills.WORD_COUNTS, "old")
+                + " BEGIN " + removeOld + "END;");
+        db.execSQL("CREATE TRIGGER day_summary_after_update AFTER UPDATE OF "
+                + DailyEntry.COLUMN_DATE + ", " + DailyEntry.COLUMN_MODIFIED + ", "
+                + COLUMN_WORD_COUNT + " ON " + DailyEntry.TABLE_NAME
+                + SchemaBackfills.guard(SchemaBackfills.WORD_COUNTS, "old")
+                + " BEGIN " + removeOld + addNew + "END;");
+    }
+
+    /**
+     * Creates the log of changes (version 10), and the triggers that append to it in the same
+     * transaction as every write of the entries. AUTOINCREMENT keeps the sequence numbers of
+     * changes removed by {@link #compactChangeLog} from being handed out again.
+     *
+     * @param withUuid whether the changes hold the UUID of the entry, as they do since version 11
+     */
+    private void createChangeLog(SQLiteDatabase db, boolean withUuid) {
+        db.execSQL("CREATE TABLE " + ChangeEntry.TABLE_NAME + " ("
+                + ChangeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ChangeEntry.COLUMN_ENTRY_ID + " INTEGER NOT NULL, "
+                + (withUuid ? ChangeEntry.COLUMN_ENTRY_UUID + " TEXT, " : "")
+                + ChangeEntry.COLUMN_CHANGE + " TEXT NOT NULL, "
+                + ChangeEntry.COLUMN_TIME + " INTEGER NOT NULL);");
+        createChangeTriggers(db, withUuid);
+    }
+
+    /**
+     * The index on the entry of the changes finds the later changes of an entry, so the log is
+     * compacted in steps without reading all of it for each.
+     */
+    private void createChangeLogIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_CHANGES_ENTRY + " ON " + ChangeEntry.TABLE_NAME
+                + " (" + ChangeEntry.COLUMN_ENTRY_ID + ");");
+    }
+
+    /**
+     * Creates the triggers that append to the log of changes. Updates of columns only derived
+     * from others, like the preview, are not changes of their own, and neither are rewrites of
+     * the stored body, as {@link BodyCompression#migrate} makes: an edit of the body always sets
+     * the modification time along. Nor are the rewrites of the tags by the
+     * {@link SchemaBackfills#TAGS} backfill, which normalizes them: it leaves the modification
+     * time as it is, and only writes entries it has not reached yet.
+     *
+     * The time of a delete is the version of the deletion a sync pushes, so it must come after
+     * the last modification of the entry, even one made in the same millisecond. A deletion
+     * pulled by a sync keeps the version it was pulled with, which the sync leaves in
+     * {@link DailyEntry#COLUMN_SYNCED_MODIFIED} ahead of the modification time before deleting.
+     *
+     * @param withUuid whether the entries have a UUID and a version last synced, and the changes
+     *                 hold the UUID, as they do since version 11
+     */
+    private void createChangeTriggers(SQLiteDatabase db, boolean withUuid) {
+        String append = "INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                + ChangeEntry.COLUMN_ENTRY_ID + ", "
+                + (withUuid ? ChangeEntry.COLUMN_ENTRY_UUID + ", " : "")
+                + ChangeEntry.COLUMN_CHANGE + ", "
+                + ChangeEntry.COLUMN_TIME + ") VALUES (%1$s." + DailyEntry._ID + ", "
+                + (withUuid ? "%1$s." + DailyEntry.COLUMN_UUID + ", " : "") + "'%2$s', %3$s); ";
+        String deleteTime = SQL_NOW_MILLIS;
+        if (withUuid) {
+            deleteTime = "CASE WHEN old." + DailyEntry.COLUMN_SYNCED_MODIFIED + " > old."
+                    + DailyEntry.COLUMN_MODIFIED + " THEN old." + DailyEntry.COLUMN_SYNCED_MODIFIED
+                    + " ELSE MAX(old." + DailyEntry.COLUMN_MODIFIED + " + 1, " + SQL_NOW_MILLIS
+                    + ") END";
+        }
+
+        db.execSQL("CREATE TRIGGER changes_after_insert AFTER INSERT ON " + DailyEntry.TABLE_NAME
+                + " BEGIN " + String.format(append, "new", DailyEntry.CHANGE_INSERT,
+                SQL_NOW_MILLIS) + "END;");
+        db.execSQL("CREATE TRIGGER changes_after_update AFTER UPDATE OF "
+                + DailyEntry.COLUMN_TITLE + ", " + DailyEntry.COLUMN_TAG + ", "
+                + DailyEntry.COLUMN_DATE + ", " + DailyEntry.COLUMN_CREATED + ", "
+                + DailyEntry.COLUMN_MODIFIED + " ON " + DailyEntry.TABLE_NAME
+                + " WHEN new." + DailyEntry.COLUMN_MODIFIED + " IS NOT old."
+                + DailyEntry.COLUMN_MODIFIED + " OR "
+                + SchemaBackfills.reached(SchemaBackfills.TAGS, "new." + DailyEntry._ID)
+                + " BEGIN " + String.format(append, "new", DailyEntry.CHANGE_UPDATE,
+                SQL_NOW_MILLIS) + "END;");
+        db.execSQL("CREATE TRIGGER changes_after_delete AFTER DELETE ON " + DailyEntry.TABLE_NAME
+                + " BEGIN " + String.format(append, "old", DailyEntry.CHANGE_DELETE, deleteTime)
+                + "END;");
+    }
+
+    /**
+     * Drops the triggers created by {@link #createChangeTriggers}.
+     */
+    private void dropChangeTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS changes_after_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS changes_after_update");
+        db.execSQL("DROP TRIGGER IF EXISTS changes_after_delete");
+    }
+
+    /**
+     * Makes the database keep track of its free pages, so {@link #reclaimSpace} can give them
+     * back to the file system. Unless it does already, the whole database is rewritten, blocking
+     * every write meanwhile, so only call it while the database holds next to nothing: when it
+     * was just created, or once all entries were deleted from one created by an older version
+     * of the app. Must not be called inside a transaction.
+     */
+    static void enableIncrementalVacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+    }
+
+    /**
+     * Gives up to the given number of free pages back to the file system, truncating the file,
+     * if incremental vacuum is enabled. Returns the number of free pages left to give back, 0 if
+     * incremental vacuum is not enabled. Each call is one short write transaction.
+     */
+    static long reclaimSpace(SQLiteDatabase db, int maxPages) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            return 0;
+        }
+
+        // The pragma frees one page per step, reading all its rows runs it to the end
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+
+    /**
+     * Drops every change that is followed by a later change of the same entry from the log, and
+     * the deletions every reader has acknowledged: once synced, the deleted entry is gone on the
+     * remote as well, and nothing here refers to it anymore. Goes through the log in steps of
+     * {@link #COMPACT_STEP_CHANGES} changes, each a statement of its own, and stops early when
+     * the thread is interrupted. Returns the number of changes dropped.
+     *
+     * @param acknowledged sequence number up to which deletions were read by every reader,
+     *                     0 to keep them all
+     */
+    static int compactChangeLog(SQLiteDatabase db, long acknowledged) {
+        String bound = "SELECT IFNULL((SELECT " + ChangeEntry._ID + " FROM "
+                + ChangeEntry.TABLE_NAME + " WHERE " + ChangeEntry._ID + " > ? ORDER BY "
+                + ChangeEntry._ID + " LIMIT 1 OFFSET " + (COMPACT_STEP_CHANGES - 1)
+                + "), (SELECT MAX(" + ChangeEntry._ID + ") FROM " + ChangeEntry.TABLE_NAME + "))";
+        String selection = ChangeEntry._ID + " > ? AND " + ChangeEntry._ID + " <= ? AND "
+                + "(EXISTS (SELECT 1 FROM " + ChangeEntry.TABLE_NAME + " AS later WHERE later."
+                + ChangeEntry.COLUMN_ENTRY_ID + " = " + ChangeEntry.TABLE_NAME + "."
+                + ChangeEntry.COLUMN_ENTRY_ID + " AND later." + ChangeEntry._ID + " > "
+                + ChangeEntry.TABLE_NAME + "." + ChangeEntry._ID + ") OR ("
+                + ChangeEntry.COLUMN_CHANGE + " = '" + DailyEntry.CHANGE_DELETE + "' AND "
+                + ChangeEntry._ID + " <= ?))";
+
+        int compacted = 0;
+        long after = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            long upTo = DatabaseUtils.longForQuery(db, bound,
+                    new String[] { String.valueOf(after) });
+            if (upTo <= after) {
+                break;
+            }
+            compacted += db.delete(ChangeEntry.TABLE_NAME, selection, new String[] {
+                    String.valueOf(after), String.valueOf(upTo), String.valueOf(acknowledged) });
+            after = upTo;
+        }
+        return compacted;
     }
 }
@@ -1,15 +1,54 @@
 package com.jingkastudio.android.hippocampus.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.jingkastudio.android.hippocampus.StartupTimer;
+import com.jingkastudio.android.hippocampus.data.EntryContract.ChangeEntry;
 import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DaySummaryEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DraftEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.TagEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link ContentProvider} for Hippocampus app.
@@ -26,6 +65,102 @@ public class EntryProvider extends ContentProvider{
     /** URI matcher code for the content URI for a single entry in the entries table */
     private static final int ENTRY_ID = 101;
 
+    /** URI matcher code for the content URI for the entries of a single day */
+    private static final int ENTRY_DATE = 102;
+
+    /** URI matcher code for the content URI for a full-text search over the entries */
+    private static final int ENTRY_SEARCH = 103;
+
+    /** URI matcher code for the entries with a tag */
+    private static final int ENTRY_TAG = 104;
+
+    /** URI matcher code for the content URI for the draft of a single entry */
+    private static final int DRAFT_ID = 200;
+
+    /** URI matcher code for the tags in use */
+    private static final int TAGS = 300;
+
+    /** URI matcher code for the summary of the days */
+    private static final int SUMMARY = 400;
+
+    /** URI matcher code for the archive of all entries */
+    private static final int EXPORT = 500;
+
+    /** URI matcher code for the log of changes */
+    private static final int CHANGES = 600;
+
+    /**
+     * Default order of search results: entries with more occurrences of the search terms first.
+     * offsets() lists four numbers per matching term occurrence, so its length grows with the
+     * number of hits; this is the cheapest ranking FTS4 offers without a custom function.
+     */
+    private static final String SEARCH_RANK_ORDER = "length(offsets("
+            + EntryDbHelper.TABLE_ENTRIES_FTS + ")) DESC, "
+            + DailyEntry.TABLE_NAME + "." + DailyEntry._ID + " DESC";
+
+    /** Statement used by {@link #bulkInsert} to insert one entry, in the order the columns are bound */
+    private static final String SQL_INSERT_ENTRY = "INSERT INTO " + DailyEntry.TABLE_NAME + " ("
+            + DailyEntry.COLUMN_TITLE + ", "
+            + DailyEntry.COLUMN_BODY + ", "
+            + DailyEntry.COLUMN_TAG + ", "
+            + DailyEntry.COLUMN_DATE + ", "
+            + DailyEntry.COLUMN_CREATED + ", "
+            + DailyEntry.COLUMN_MODIFIED + ", "
+            + DailyEntry.COLUMN_PREVIEW + ", "
+            + EntryDbHelper.COLUMN_BODY_COMPRESSED + ", "
+            + EntryDbHelper.COLUMN_WORD_COUNT + ", "
+            + DailyEntry.COLUMN_UUID + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /** Maximum number of characters of the body kept in {@link DailyEntry#COLUMN_PREVIEW} */
+    static final int PREVIEW_LENGTH = 140;
+
+    /** Number of entries of the day read to warm up the database, about a page of the list */
+    private static final int WARM_UP_ROWS = 50;
+
+    /** Approximate number of bytes the cache of recently used entries may take up */
+    private static final int ENTRY_CACHE_BYTES = 512 * 1024;
+
+    /**
+     * Number of free pages given back to the file system per step of reclaiming space, about
+     * 1MB. Each step is a write transaction of its own, short enough not to hold up a save.
+     */
+    private static final int RECLAIM_STEP_PAGES = 256;
+
+    /** Pause between two steps of reclaiming space, so writes of the app get in between */
+    private static final long RECLAIM_STEP_PAUSE_MS = 100;
+
+    /**
+     * How long {@link #shutdown} waits for the background work to stop, in milliseconds. Each
+     * step of it is short, and checks for the interruption in between.
+     */
+    private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+    /** Time between two compactions of the log of changes while the process runs */
+    private static final long COMPACT_INTERVAL_MS = 30 * 60 * 1000;
+
+    /**
+     * Selection of the entries with the tag given as argument. The tag is found through the
+     * unique index on its name, and its entries through the primary key of the join table.
+     */
+    private static final String SELECTION_TAGGED = DailyEntry._ID + " IN (SELECT "
+            + EntryDbHelper.COLUMN_ENTRY_ID + " FROM " + EntryDbHelper.TABLE_ENTRY_TAGS
+            + " WHERE " + EntryDbHelper.COLUMN_TAG_ID + " = (SELECT " + TagEntry._ID + " FROM "
+            + TagEntry.TABLE_NAME + " WHERE " + TagEntry.COLUMN_NAME + " = ?))";
+
+    /** URI matcher codes the metrics are kept for, and their names in the metrics */
+    private static final int[] METRIC_MATCHES =
+            { ENTRIES, ENTRY_ID, ENTRY_DATE, ENTRY_SEARCH, ENTRY_TAG, DRAFT_ID, TAGS, SUMMARY,
+                    CHANGES };
+    private static final String[] METRIC_URI_NAMES =
+            { "entries", "entry", "entries_date", "entries_search", "entries_tag", "draft",
+                    "tags", "summary", "changes" };
+
+    /** Maps the columns that can be requested from the tags to the joined tables */
+    private static final HashMap<String, String> sTagProjectionMap = new HashMap<>();
+
+    /** Maps the columns that can be requested from a search to the joined tables */
+    private static final HashMap<String, String> sSearchProjectionMap = new HashMap<>();
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -52,34 +187,332 @@ public class EntryProvider extends ContentProvider{
         // For example, "content://com.jingkastudio.android.hippocampus/entries/3" matches, but
         // "content://com.jingkastudio.android.hippocampus/entries" (without a number at the end) doesn't match.
         sUriMatcher.addURI(EntryContract.CONTENT_AUTHORITY, EntryContract.PATH_ENTRY + "/#", ENTRY_ID);
+
+        // The content URI of the form "content://com.jingkastudio.android.hippocampus/entries/date/#"
+        // will map to the integer code {@link #ENTRY_DATE}. This URI is used to provide access to
+        // the rows of the entries table that belong to one day, where "#" is the yyyymmdd day key.
+        sUriMatcher.addURI(EntryContract.CONTENT_AUTHORITY,
+                EntryContract.PATH_ENTRY + "/" + EntryContract.PATH_DATE + "/#", ENTRY_DATE);
+
+        // The content URI of the form "content://com.jingkastudio.android.hippocampus/entries/search"
+        // will map to the integer code {@link #ENTRY_SEARCH}. The search terms are passed in the
+        // {@link DailyEntry#QUERY_PARAM_SEARCH} query parameter.
+        sUriMatcher.addURI(EntryContract.CONTENT_AUTHORITY,
+                EntryContract.PATH_ENTRY + "/" + EntryContract.PATH_SEARCH, ENTRY_SEARCH);
+
+        // The content URI of the form "content://com.jingkastudio.android.hippocampus/drafts/#"
+        // will map to the integer code {@link #DRAFT_ID}, where "#" is the id of the entry the
+        // draft is for.
+        sUriMatcher.addURI(EntryContract.CONTENT_AUTHORITY, EntryContract.PATH_DRAFT + "/#", DRAFT_ID);
+
+        // The content URI of the form "content://com.jingkastudio.android.hippocampus/entries/tag/*"
+        // will map to the integer code {@link #ENTRY_TAG}, where "*" is the name of the tag.
+        sUriMatcher.addURI(EntryContract.CONTENT_AUTHORITY,
+                EntryContract.PATH_ENTRY + "/" + EntryContract.PATH_TAG + "/*", ENTRY_TAG);
+
+        // The content URI of the form "content://com.jingkastudio.android.hippocampus/tags"
+        // will map to the integer code {@link #TAGS}.
+        sUriMatcher.addURI(EntryContract.CONTENT_AUTHORITY, EntryContract.PATH_TAGS, TAGS);
+
+        // The content URI of the form "content://com.jingkastudio.android.hippocampus/summary"
+        // will map to the integer code {@link #SUMMARY}. The range of days is passed in the
+        // {@link DaySummaryEntry#QUERY_PARAM_FROM} and {@link DaySummaryEntry#QUERY_PARAM_TO}
+        // query parameters.
+        sUriMatcher.addURI(EntryContract.CONTENT_AUTHORITY, EntryContract.PATH_SUMMARY, SUMMARY);
+
+        // The content URI of the form "content://com.jingkastudio.android.hippocampus/export"
+        // will map to the integer code {@link #EXPORT}. It is opened as a file, not queried.
+        sUriMatcher.addURI(EntryContract.CONTENT_AUTHORITY, EntryContract.PATH_EXPORT, EXPORT);
+
+        // The content URI of the form "content://com.jingkastudio.android.hippocampus/changes"
+        // will map to the integer code {@link #CHANGES}. The sequence number to read the changes
+        // after is passed in the {@link ChangeEntry#QUERY_PARAM_SINCE} query parameter.
+        sUriMatcher.addURI(EntryContract.CONTENT_AUTHORITY, EntryContract.PATH_CHANGES, CHANGES);
+
+        // The tags come with the number of their entries, counted from the join table
+        sTagProjectionMap.put(TagEntry._ID, TagEntry.TABLE_NAME + "." + TagEntry._ID
+                + " AS " + TagEntry._ID);
+        sTagProjectionMap.put(TagEntry.COLUMN_NAME, TagEntry.COLUMN_NAME);
+        sTagProjectionMap.put(TagEntry.COLUMN_ENTRY_COUNT, "COUNT(*) AS "
+                + TagEntry.COLUMN_ENTRY_COUNT);
+
+        // Search results come from the entries table joined with the full-text index, so the
+        // entry columns have to be qualified with their table.
+        String[] entryColumns = {
+                DailyEntry._ID,
+                DailyEntry.COLUMN_TITLE,
+                DailyEntry.COLUMN_BODY,
+                DailyEntry.COLUMN_TAG,
+                DailyEntry.COLUMN_DATE,
+                DailyEntry.COLUMN_CREATED,
+                DailyEntry.COLUMN_MODIFIED,
+                DailyEntry.COLUMN_PREVIEW,
+                DailyEntry.COLUMN_UUID };
+        for (String column : entryColumns) {
+            sSearchProjectionMap.put(column, DailyEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        sSearchProjectionMap.put(DailyEntry.COLUMN_SNIPPET, "snippet("
+                + EntryDbHelper.TABLE_ENTRIES_FTS + ", '<b>', '</b>', '\u2026', -1, 16) AS "
+                + DailyEntry.COLUMN_SNIPPET);
     }
 
+    /** Name of the preferences file of the provider */
+    private static final String PREFS_NAME = "entry_provider";
+
+    /** Preference key for whether large bodies are stored compressed */
+    private static final String PREF_COMPRESS_BODIES = "compress_bodies";
+
+    /**
+     * Preference key for the sequence number of the log of changes up to which the changes were
+     * acknowledged, see {@link EntryContract#METHOD_ACKNOWLEDGE_CHANGES}
+     */
+    private static final String PREF_ACKNOWLEDGED_CHANGES = "acknowledged_changes";
+
     private EntryDbHelper mEntryDbHelper;
 
+    /**
+     * Whether large bodies are stored compressed, as last set in the preferences. Kept here so
+     * writes don't read the preferences.
+     */
+    private volatile boolean mCompressBodies;
+
+    /** Recently read and written entries, serving queries for a single entry */
+    private final EntryCache mEntryCache = new EntryCache(ENTRY_CACHE_BYTES);
+
+    /** Reads single entries missing from the cache, reusing a few cursor windows */
+    private final EntryReader mEntryReader = new EntryReader();
+
+    /** Latest slow queries, see {@link EntryContract#METHOD_GET_SLOW_QUERIES} */
+    private final SlowQueryLog mSlowQueries = new SlowQueryLog();
+
+    /** Latencies and row counts of the operations, see {@link EntryContract#METHOD_GET_METRICS} */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(METRIC_MATCHES, METRIC_URI_NAMES);
+
+    /**
+     * The {@link #applyBatch} running on the current thread, whose notifications and cache
+     * evictions are held back until it commits. Null outside of a batch.
+     */
+    private final ThreadLocal<PendingBatch> mPendingBatch = new ThreadLocal<>();
+
+    /**
+     * Runs the work on the database the app doesn't wait for, one task after the other: opening
+     * it, the backfills, compacting the log of changes, reclaiming space and converting the
+     * stored bodies. Stopped by
+     * {@link #shutdown}.
+     */
+    private final ScheduledExecutorService mBackground = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "EntryDatabase");
+                }
+            });
+
     @Override
     public boolean onCreate() {
+        StartupTimer.mark("provider_create");
         mEntryDbHelper = new EntryDbHelper(getContext());
+        mCompressBodies = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(PREF_COMPRESS_BODIES, false);
+        startDatabase();
+        mBackground.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                compactChangeLog(mEntryDbHelper.getWritableDatabase());
+            }
+        }, COMPACT_INTERVAL_MS, COMPACT_INTERVAL_MS, TimeUnit.MILLISECONDS);
         return true;
     }
 
+    @Override
+    public void shutdown() {
+        // The background work must not touch the database once it is closed
+        mBackground.shutdownNow();
+        try {
+            if (!mBackground.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(LOG_TAG, "Background work still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mEntryReader.close();
+        mEntryDbHelper.close();
+    }
+
+    /**
+     * Frees the cursor windows kept for reading entries once the process is in the background.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            mEntryReader.trim();
+        }
+    }
+
+    /**
+     * Opens the database on the background thread while the first activity inflates its layout:
+     * creates or upgrades it, configures the connection and warms up the pages the catalog
+     * reads first. The first query of the catalog then finds the database open, or waits for
+     * the open already under way instead of starting it.
+     *
+     * Afterwards the backfills of an upgrade run on the same thread. Each batch is committed on
+     * its own, so writes from the app never wait for more than one batch; a backfill interrupted
+     * by {@link #shutdown} or the end of the process resumes the next time. Last, the log of
+     * changes is compacted, as it is again every {@link #COMPACT_INTERVAL_MS} while the process
+     * runs, and the space freed by deletes is given back to the file system.
+     */
+    private void startDatabase() {
+        mBackground.execute(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase database = mEntryDbHelper.getWritableDatabase();
+                StartupTimer.mark("database_open");
+                warmUp(database);
+                StartupTimer.mark("database_warm");
+
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                boolean filled = false;
+                while (!Thread.currentThread().isInterrupted()
+                        && SchemaBackfills.runBatch(database)) {
+                    // The batch may have changed columns of cached entries
+                    mEntryCache.evictAll();
+                    filled = true;
+                }
+                if (filled) {
+                    notifyChange(DailyEntry.CONTENT_URI);
+                }
+
+                compactChangeLog(database);
+                reclaimSpace(database);
+            }
+        });
+    }
+
+    /**
+     * Drops the changes readers no longer need from the log: all but the latest change of each
+     * entry, and the acknowledged deletions. Runs on the background thread.
+     */
+    private void compactChangeLog(SQLiteDatabase database) {
+        long acknowledged = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getLong(PREF_ACKNOWLEDGED_CHANGES, 0);
+        int compacted = EntryDbHelper.compactChangeLog(database, acknowledged);
+        if (compacted != 0) {
+            Log.i(LOG_TAG, "Compacted " + compacted + " changes");
+        }
+    }
+
+    /**
+     * Records that the changes up to the given sequence number were read, see
+     * {@link EntryContract#METHOD_ACKNOWLEDGE_CHANGES}. The sequence number never goes back.
+     */
+    private synchronized void acknowledgeChanges(long sequence) {
+        SharedPreferences preferences =
+                getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (sequence > preferences.getLong(PREF_ACKNOWLEDGED_CHANGES, 0)) {
+            preferences.edit().putLong(PREF_ACKNOWLEDGED_CHANGES, sequence).apply();
+        }
+    }
+
+    /**
+     * Gives the free pages of the database back to the file system in bounded steps, with pauses
+     * in between, until done or interrupted. Runs on the background thread.
+     */
+    private static void reclaimSpace(SQLiteDatabase database) {
+        // SystemClock.sleep() keeps the interruption for the check
+        while (!Thread.currentThread().isInterrupted()
+                && EntryDbHelper.reclaimSpace(database, RECLAIM_STEP_PAGES) > 0) {
+            SystemClock.sleep(RECLAIM_STEP_PAUSE_MS);
+        }
+    }
+
+    /**
+     * Queues giving the space freed by deleting all entries back to the file system, on the
+     * background thread. The log then holds a deletion for every entry on top of their earlier
+     * changes, so it is compacted first and its pages are given back along.
+     *
+     * Databases created by older versions of the app don't keep track of their free pages. If
+     * no entry was written meanwhile, such a database holds little more than the compacted log
+     * now, so it is rewritten once to keep track of them, which gives the free pages back at
+     * the same time; see {@link EntryDbHelper#enableIncrementalVacuum}.
+     */
+    private void reclaimSpaceInBackground() {
+        mBackground.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                SQLiteDatabase database = mEntryDbHelper.getWritableDatabase();
+                compactChangeLog(database);
+                if (!Thread.currentThread().isInterrupted()
+                        && DatabaseUtils.queryNumEntries(database, DailyEntry.TABLE_NAME) == 0) {
+                    EntryDbHelper.enableIncrementalVacuum(database);
+                }
+                reclaimSpace(database);
+            }
+        });
+    }
+
+    /**
+     * Reads what the catalog shows first, today's entries and the summary of the days around,
+     * so their pages are in the page cache by the time the catalog asks for them.
+     */
+    private static void warmUp(SQLiteDatabase database) {
+        long now = System.currentTimeMillis();
+        int today = dateKeyOf(now);
+        Cursor cursor = database.query(DailyEntry.TABLE_NAME,
+                new String[] { DailyEntry._ID, DailyEntry.COLUMN_TITLE, DailyEntry.COLUMN_PREVIEW },
+                DailyEntry.COLUMN_DATE + "=?", new String[] { String.valueOf(today) },
+                null, null, DailyEntry._ID, String.valueOf(WARM_UP_ROWS));
+        try {
+            // Counting the rows of a cursor reads them all
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+
+        long week = 7 * 24 * 60 * 60 * 1000L;
+        cursor = database.query(DaySummaryEntry.TABLE_NAME, null,
+                DaySummaryEntry.COLUMN_DATE + " BETWEEN ? AND ?", new String[] {
+                        String.valueOf(dateKeyOf(now - week)), String.valueOf(dateKeyOf(now + week)) },
+                null, null, null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        mSlowQueries.onQueryStarted();
+        Cursor cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+
+        // Counting the rows runs the query, which a cursor otherwise does on its first access
+        int rows = cursor.getCount();
+        long nanos = System.nanoTime() - start;
+        mMetrics.record(ProviderMetrics.QUERY, match, nanos, rows,
+                ProviderMetrics.estimateBytes(cursor, rows));
+        mSlowQueries.onQueryFinished(mEntryDbHelper.getReadableDatabase(), uri, nanos, rows);
+        return cursor;
+    }
+
+    private Cursor query(int match, Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mEntryDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case ENTRIES:
                 // For the ENTRIES code, query the entries table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the entries table.
-                cursor = database.query(DailyEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // could contain multiple rows of the entries table, or one page of them.
+                cursor = queryEntries(database, uri, projection, selection, selectionArgs, sortOrder);
                 break;
             case ENTRY_ID:
                 // For the ENTRY_ID code, extract out the ID from the URI.
@@ -90,13 +523,60 @@ public class EntryProvider extends ContentProvider{
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
+                long id = ContentUris.parseId(uri);
                 selection = DailyEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                selectionArgs = new String[] { String.valueOf(id) };
+
+                // Serve the entry from the cache of recent entries if it has all the requested
+                // columns. Inside of a batch the cache may not reflect the batch's own writes yet.
+                if (mPendingBatch.get() == null && EntryCache.covers(projection)) {
+                    cursor = queryCachedEntry(database, id, projection);
+                    break;
+                }
 
                 // This will perform a query on the entries table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(DailyEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = queryEntry(database, projection, selection, selectionArgs, sortOrder);
+                break;
+            case ENTRY_DATE:
+                // For the ENTRY_DATE code, restrict the caller's selection to the day given in the
+                // URI. Together with the default order by id this is answered by a single range
+                // read of the (date, _id) index.
+                selection = DatabaseUtils.concatenateWhere(DailyEntry.COLUMN_DATE + "=?", selection);
+                selectionArgs = prependSelectionArg(uri.getLastPathSegment(), selectionArgs);
+                if (sortOrder == null) {
+                    sortOrder = DailyEntry._ID;
+                }
+
+                cursor = queryEntries(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case ENTRY_SEARCH:
+                cursor = searchEntries(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case ENTRY_TAG:
+                // For the ENTRY_TAG code, restrict the caller's selection to the entries with the
+                // tag in the URI. Pages work the same as for all the entries.
+                selection = DatabaseUtils.concatenateWhere(SELECTION_TAGGED, selection);
+                selectionArgs = prependSelectionArg(uri.getLastPathSegment(), selectionArgs);
+                if (sortOrder == null) {
+                    sortOrder = DailyEntry._ID;
+                }
+
+                cursor = queryEntries(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case TAGS:
+                cursor = queryTags(database, projection, selection, selectionArgs, sortOrder);
+                break;
+            case SUMMARY:
+                cursor = querySummary(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case CHANGES:
+                cursor = queryChanges(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case DRAFT_ID:
+                cursor = runQuery(database, DraftEntry.TABLE_NAME, projection,
+                        DraftEntry._ID + "=?",
+                        new String[] { String.valueOf(ContentUris.parseId(uri)) }, null, null, null);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -105,14 +585,265 @@ public class EntryProvider extends ContentProvider{
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // A list can change with any entry, and changes of single entries are notified on the
+        // URI of the entry, so lists watch all the entries.
+        Uri notificationUri = match == ENTRY_ID || match == DRAFT_ID ? uri : DailyEntry.CONTENT_URI;
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         return cursor;
     }
 
+    /**
+     * Query a single entry through the cache of recent entries. On a miss the whole row is read,
+     * with the body inflated, and cached for the next query.
+     */
+    private Cursor queryCachedEntry(SQLiteDatabase database, long id, String[] projection) {
+        return EntryCache.toCursor(readCachedEntry(database, id), projection);
+    }
+
+    /**
+     * Returns the row of an entry from the cache of recent entries, or reads it through the
+     * {@link EntryReader} on a miss and caches it. Returns null if there is no such entry.
+     */
+    private Object[] readCachedEntry(SQLiteDatabase database, long id) {
+        Object[] row = mEntryCache.get(id);
+        if (row == null) {
+            long generation = mEntryCache.generation();
+            row = mEntryReader.read(database, id);
+            if (row != null) {
+                mEntryCache.put(id, row, generation);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Returns the entries with the given ids in Bundles, see
+     * {@link EntryContract#METHOD_GET_ENTRIES}. Entries that don't exist are left out.
+     */
+    private ArrayList<Bundle> getEntries(long[] ids) {
+        SQLiteDatabase database = mEntryDbHelper.getReadableDatabase();
+        ArrayList<Bundle> entries = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            Object[] row = readCachedEntry(database, id);
+            if (row != null) {
+                entries.add(EntryCache.toBundle(row));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Query a single entry. If the body is requested and stored compressed, it is inflated here,
+     * so compressed bodies are only ever inflated for the one entry being opened.
+     */
+    private Cursor queryEntry(SQLiteDatabase database, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
+        if (projection != null && !Arrays.asList(projection).contains(DailyEntry.COLUMN_BODY)) {
+            return runQuery(database, DailyEntry.TABLE_NAME, projection, selection,
+                    selectionArgs, null, sortOrder, null);
+        }
+
+        // Read the compressed body along with the requested columns
+        String[] columns = null;
+        if (projection != null) {
+            columns = Arrays.copyOf(projection, projection.length + 1);
+            columns[projection.length] = EntryDbHelper.COLUMN_BODY_COMPRESSED;
+        }
+        Cursor stored = runQuery(database, DailyEntry.TABLE_NAME, columns, selection,
+                selectionArgs, null, sortOrder, null);
+        try {
+            int bodyColumn = stored.getColumnIndexOrThrow(DailyEntry.COLUMN_BODY);
+            int compressedBodyColumn =
+                    stored.getColumnIndexOrThrow(EntryDbHelper.COLUMN_BODY_COMPRESSED);
+
+            // Copy the row into a cursor without the compressed body, with the body inflated
+            String[] storedNames = stored.getColumnNames();
+            String[] names = new String[storedNames.length - 1];
+            for (int i = 0, j = 0; i < storedNames.length; i++) {
+                if (i != compressedBodyColumn) {
+                    names[j++] = storedNames[i];
+                }
+            }
+            MatrixCursor cursor = new MatrixCursor(names, stored.getCount());
+            while (stored.moveToNext()) {
+                MatrixCursor.RowBuilder row = cursor.newRow();
+                for (int i = 0; i < storedNames.length; i++) {
+                    if (i == bodyColumn) {
+                        row.add(BodyCompression.readBody(stored, bodyColumn, compressedBodyColumn));
+                    } else if (i != compressedBodyColumn) {
+                        row.add(valueOf(stored, i));
+                    }
+                }
+            }
+            return cursor;
+        } finally {
+            stored.close();
+        }
+    }
+
+    /**
+     * Query the entries table. If the URI has a {@link DailyEntry#QUERY_PARAM_LIMIT} parameter,
+     * only one page of entries is returned, ordered by id and starting after the id in the
+     * {@link DailyEntry#QUERY_PARAM_AFTER_ID} parameter. Seeking to the id costs the same on any
+     * page, where an OFFSET would read and skip every row of the pages before.
+     */
+    private Cursor queryEntries(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        String limit = uri.getQueryParameter(DailyEntry.QUERY_PARAM_LIMIT);
+        if (limit != null) {
+            if (sortOrder != null && !sortOrder.equals(DailyEntry._ID)) {
+                throw new IllegalArgumentException("Pages are always sorted by id " + uri);
+            }
+            sortOrder = DailyEntry._ID;
+
+            String afterId = uri.getQueryParameter(DailyEntry.QUERY_PARAM_AFTER_ID);
+            if (afterId != null) {
+                selection = DatabaseUtils.concatenateWhere(selection, DailyEntry._ID + ">?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] { String.valueOf(Long.parseLong(afterId)) });
+            }
+            limit = String.valueOf(Integer.parseInt(limit));
+        }
+
+        return runQuery(database, DailyEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, sortOrder, limit);
+    }
+
+    /**
+     * Run a full-text search for the query in the {@link DailyEntry#QUERY_PARAM_SEARCH} parameter
+     * of the URI. The MATCH is answered by the FTS index, and only the matching rows are read
+     * from the entries table.
+     */
+    private Cursor searchEntries(SQLiteDatabase database, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs, String sortOrder) {
+        String query = uri.getQueryParameter(DailyEntry.QUERY_PARAM_SEARCH);
+        if (query == null || query.trim().isEmpty()) {
+            throw new IllegalArgumentException("Search query can not be blank for " + uri);
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(EntryDbHelper.TABLE_ENTRIES_FTS + " JOIN " + DailyEntry.TABLE_NAME
+                + " ON " + DailyEntry.TABLE_NAME + "." + DailyEntry._ID + " = "
+                + EntryDbHelper.TABLE_ENTRIES_FTS + ".docid");
+        builder.setProjectionMap(sSearchProjectionMap);
+        builder.appendWhere(EntryDbHelper.TABLE_ENTRIES_FTS + " MATCH ?");
+        selectionArgs = prependSelectionArg(query, selectionArgs);
+
+        if (sortOrder == null) {
+            sortOrder = SEARCH_RANK_ORDER;
+        }
+        return runQuery(database,
+                builder.buildQuery(projection, selection, null, null, sortOrder, null),
+                selectionArgs);
+    }
+
+    /**
+     * Query the tags that are on at least one entry, with their number of entries, ordered by
+     * name. Unused tags are left out by the join.
+     */
+    private Cursor queryTags(SQLiteDatabase database, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(TagEntry.TABLE_NAME + " JOIN " + EntryDbHelper.TABLE_ENTRY_TAGS
+                + " ON " + EntryDbHelper.COLUMN_TAG_ID + " = "
+                + TagEntry.TABLE_NAME + "." + TagEntry._ID);
+        builder.setProjectionMap(sTagProjectionMap);
+
+        if (sortOrder == null) {
+            sortOrder = TagEntry.COLUMN_NAME;
+        }
+        return runQuery(database, builder.buildQuery(projection, selection,
+                TagEntry.TABLE_NAME + "." + TagEntry._ID, null, sortOrder, null), selectionArgs);
+    }
+
+    /**
+     * Query the summary of the days in the range given by the {@link DaySummaryEntry#QUERY_PARAM_FROM}
+     * and {@link DaySummaryEntry#QUERY_PARAM_TO} parameters, if any. The day is the primary key of
+     * the summary, so this reads just the rows of the range.
+     */
+    private Cursor querySummary(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        String from = uri.getQueryParameter(DaySummaryEntry.QUERY_PARAM_FROM);
+        if (from != null) {
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    DaySummaryEntry.COLUMN_DATE + ">=?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[] { String.valueOf(Integer.parseInt(from)) });
+        }
+        String to = uri.getQueryParameter(DaySummaryEntry.QUERY_PARAM_TO);
+        if (to != null) {
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    DaySummaryEntry.COLUMN_DATE + "<=?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[] { String.valueOf(Integer.parseInt(to)) });
+        }
+
+        if (sortOrder == null) {
+            sortOrder = DaySummaryEntry.COLUMN_DATE;
+        }
+        return runQuery(database, DaySummaryEntry.TABLE_NAME, projection, selection,
+                selectionArgs, null, sortOrder, null);
+    }
+
+    /**
+     * Query the log of changes after the sequence number given by the
+     * {@link ChangeEntry#QUERY_PARAM_SINCE} parameter, if any, in order, up to the number given
+     * by {@link ChangeEntry#QUERY_PARAM_LIMIT}. The sequence number is the primary key of the
+     * log, so this reads just the changes after it.
+     */
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        String since = uri.getQueryParameter(ChangeEntry.QUERY_PARAM_SINCE);
+        if (since != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, ChangeEntry._ID + ">?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[] { String.valueOf(Long.parseLong(since)) });
+        }
+
+        String limit = uri.getQueryParameter(ChangeEntry.QUERY_PARAM_LIMIT);
+        if (limit != null) {
+            limit = String.valueOf(Integer.parseInt(limit));
+        }
+
+        if (sortOrder == null) {
+            sortOrder = ChangeEntry._ID;
+        }
+        return runQuery(database, ChangeEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, sortOrder, limit);
+    }
+
+    /**
+     * Runs the query of the table the way {@link SQLiteDatabase#query} would, see
+     * {@link #runQuery(SQLiteDatabase, String, String[])}.
+     */
+    private Cursor runQuery(SQLiteDatabase database, String table, String[] columns,
+                            String selection, String[] selectionArgs, String groupBy,
+                            String orderBy, String limit) {
+        return runQuery(database, SQLiteQueryBuilder.buildQueryString(false, table, columns,
+                selection, groupBy, null, orderBy, limit), selectionArgs);
+    }
+
+    /**
+     * Runs the SQL of a query of the provider, and hands it to the log of slow queries, which
+     * explains it if the query turns out slow.
+     */
+    private Cursor runQuery(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        mSlowQueries.onQueryRun(sql);
+        return database.rawQuery(sql, selectionArgs);
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        Uri newUri = insert(match, uri, contentValues);
+        mMetrics.record(ProviderMetrics.INSERT, match, System.nanoTime() - start,
+                newUri == null ? 0 : 1, 0);
+        return newUri;
+    }
+
+    private Uri insert(int match, Uri uri, ContentValues contentValues) {
         switch (match) {
             case ENTRIES:
                 return insertEntry(uri, contentValues);
@@ -132,38 +863,197 @@ public class EntryProvider extends ContentProvider{
             throw new IllegalArgumentException("Title can not be blank");
         }
 
+        // Stamp the entry with its day and creation time, unless the caller already did
+        values = new ContentValues(values);
+        long now = System.currentTimeMillis();
+        if (!values.containsKey(DailyEntry.COLUMN_DATE)) {
+            values.put(DailyEntry.COLUMN_DATE, dateKeyOf(now));
+        }
+        if (!values.containsKey(DailyEntry.COLUMN_CREATED)) {
+            values.put(DailyEntry.COLUMN_CREATED, now);
+        }
+        if (!values.containsKey(DailyEntry.COLUMN_MODIFIED)) {
+            values.put(DailyEntry.COLUMN_MODIFIED, now);
+        }
+        if (values.getAsString(DailyEntry.COLUMN_UUID) == null) {
+            values.put(DailyEntry.COLUMN_UUID, UUID.randomUUID().toString());
+        }
+        String body = values.getAsString(DailyEntry.COLUMN_BODY);
+        values.put(DailyEntry.COLUMN_PREVIEW, previewOf(body));
+        values.put(EntryDbHelper.COLUMN_WORD_COUNT, wordCountOf(body));
+        storeBody(values);
+        List<String> tags = normalizeTags(values);
+
         // Get writeable database
         SQLiteDatabase database = mEntryDbHelper.getWritableDatabase();
 
-        // Insert the new entry with the given values
-        long id = database.insert(DailyEntry.TABLE_NAME, null, values);
+        // Insert the new entry with the given values, and index its tags along
+        long generation = mEntryCache.generation();
+        long id;
+        database.beginTransaction();
+        try {
+            id = database.insert(DailyEntry.TABLE_NAME, null, values);
+            if (id != -1 && tags != null && !tags.isEmpty()) {
+                writeTags(database, new long[] { id }, tags);
+            }
+            if (id != -1 && values.get(EntryDbHelper.COLUMN_BODY_COMPRESSED) != null) {
+                SearchIndex.addCompressed(database, id, name, body);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
 
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // A new entry is usually opened right after it was written, keep it at hand
+        Object[] row = new Object[EntryCache.COLUMNS.length];
+        row[EntryCache.indexOf(DailyEntry._ID)] = id;
+        cacheWrittenEntry(id, mergeEntryRow(row, values, body), generation);
+
+        // Notify all listeners that the entry was inserted
+        notifyChange(DailyEntry.buildChangeUri(id, DailyEntry.CHANGE_INSERT));
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, id);
     }
 
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        int rowsInserted = bulkInsert(match, uri, values);
+        mMetrics.record(ProviderMetrics.BULK_INSERT, match, System.nanoTime() - start,
+                rowsInserted, 0);
+        return rowsInserted;
+    }
+
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
+        switch (match) {
+            case ENTRIES:
+                return bulkInsertEntries(uri, values);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Insert all the given entries in one transaction and notify the listeners once at the end,
+     * see {@link #insertEntries}. Return the number of entries inserted.
+     */
+    private int bulkInsertEntries(Uri uri, ContentValues[] values) {
+        int rowsInserted = insertEntries(values);
+
+        // Notify all listeners once for the whole batch
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+
+        // Returns the number of rows inserted
+        return rowsInserted;
+    }
+
+    /**
+     * Insert all the given entries in one transaction, reusing a single compiled statement,
+     * without notifying anyone. Either all entries are inserted or none: an entry without a
+     * title rolls back the whole batch. Only the title, body, tag, date, created, modified and
+     * UUID columns are stored. Return the number of entries inserted.
+     */
+    private int insertEntries(ContentValues[] values) {
+        // Get writeable database
+        SQLiteDatabase database = mEntryDbHelper.getWritableDatabase();
+
+        long now = System.currentTimeMillis();
+        int today = dateKeyOf(now);
+        boolean compressBodies = isBodyCompressionEnabled();
+        int rowsInserted = 0;
+
+        database.beginTransaction();
+        SQLiteStatement statement = database.compileStatement(SQL_INSERT_ENTRY);
+        EntryTags.Writer tagWriter = null;
+        try {
+            for (ContentValues entry : values) {
+                // Check that the name is not null
+                String name = entry.getAsString(DailyEntry.COLUMN_TITLE);
+                if (name == null) {
+                    throw new IllegalArgumentException("Title can not be blank");
+                }
+
+                // Bind the values of this entry, stamping the ones the caller left out
+                statement.clearBindings();
+                statement.bindString(1, name);
+                String body = entry.getAsString(DailyEntry.COLUMN_BODY);
+                boolean compressed = compressBodies && BodyCompression.shouldCompress(body);
+                if (compressed) {
+                    statement.bindNull(2);
+                    statement.bindBlob(8, BodyCompression.compress(body));
+                } else {
+                    bindStringOrNull(statement, 2, body);
+                    statement.bindNull(8);
+                }
+                List<String> tags = EntryTags.parse(entry.getAsString(DailyEntry.COLUMN_TAG));
+                bindStringOrNull(statement, 3, EntryTags.format(tags));
+                statement.bindLong(4, longOrDefault(entry, DailyEntry.COLUMN_DATE, today));
+                statement.bindLong(5, longOrDefault(entry, DailyEntry.COLUMN_CREATED, now));
+                statement.bindLong(6, longOrDefault(entry, DailyEntry.COLUMN_MODIFIED, now));
+                bindStringOrNull(statement, 7, previewOf(body));
+                statement.bindLong(9, wordCountOf(body));
+                String uuid = entry.getAsString(DailyEntry.COLUMN_UUID);
+                statement.bindString(10, uuid != null ? uuid : UUID.randomUUID().toString());
+
+                long id = statement.executeInsert();
+                if (id != -1) {
+                    rowsInserted++;
+                    if (compressed) {
+                        SearchIndex.addCompressed(database, id, name, body);
+                    }
+                    if (!tags.isEmpty()) {
+                        if (tagWriter == null) {
+                            tagWriter = new EntryTags.Writer(database);
+                        }
+                        tagWriter.setTags(id, tags);
+                    }
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            if (tagWriter != null) {
+                tagWriter.close();
+            }
+            statement.close();
+            database.endTransaction();
+        }
+        return rowsInserted;
+    }
+
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        int rowsUpdated = update(match, uri, contentValues, selection, selectionArgs);
+        mMetrics.record(ProviderMetrics.UPDATE, match, System.nanoTime() - start, rowsUpdated, 0);
+        return rowsUpdated;
+    }
+
+    private int update(int match, Uri uri, ContentValues contentValues, String selection,
+                       String[] selectionArgs) {
         switch (match) {
             case ENTRIES:
-                return updateEntry(uri, contentValues, selection, selectionArgs);
+                return updateEntry(uri, contentValues, selection, selectionArgs, -1);
             case ENTRY_ID:
                 // For the ENTRY_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
+                long id = ContentUris.parseId(uri);
                 selection = DailyEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateEntry(uri, contentValues, selection, selectionArgs);
+                selectionArgs = new String[] { String.valueOf(id) };
+                return updateEntry(uri, contentValues, selection, selectionArgs, id);
+            case DRAFT_ID:
+                return saveDraft(ContentUris.parseId(uri), contentValues);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -173,8 +1063,11 @@ public class EntryProvider extends ContentProvider{
      * Update entries in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more entries).
      * Return the number of rows that were successfully updated.
+     *
+     * @param id of the entry the selection is for, or -1 if it may be for any number of entries
      */
-    private int updateEntry(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private int updateEntry(Uri uri, ContentValues values, String selection, String[] selectionArgs,
+                            long id) {
         // If the {@link DailyEntry#COLUMN_TITLE} key is present,
         // check that the name value is not null.
         if (values.containsKey(DailyEntry.COLUMN_TITLE)) {
@@ -184,20 +1077,75 @@ public class EntryProvider extends ContentProvider{
             }
         }
 
+        // The UUID identifies the entry on other devices
+        if (values.containsKey(DailyEntry.COLUMN_UUID)) {
+            throw new IllegalArgumentException("UUID cannot be changed");
+        }
+
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
             return 0;
         }
 
+        // Record the modification time, unless the caller already did
+        values = new ContentValues(values);
+        if (!values.containsKey(DailyEntry.COLUMN_MODIFIED)) {
+            values.put(DailyEntry.COLUMN_MODIFIED, System.currentTimeMillis());
+        }
+
+        // Keep the preview in step with a new body
+        String body = values.getAsString(DailyEntry.COLUMN_BODY);
+        if (values.containsKey(DailyEntry.COLUMN_BODY)) {
+            values.put(DailyEntry.COLUMN_PREVIEW, previewOf(body));
+            values.put(EntryDbHelper.COLUMN_WORD_COUNT, wordCountOf(body));
+            storeBody(values);
+        }
+        List<String> tags = normalizeTags(values);
+        boolean textChanged = values.containsKey(DailyEntry.COLUMN_TITLE)
+                || values.containsKey(DailyEntry.COLUMN_BODY);
+
         // Otherwise, get writeable database to update the data
         SQLiteDatabase database = mEntryDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(DailyEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Perform the update on the database and get the number of rows affected. New tags and
+        // the new text of compressed bodies are indexed in the same transaction.
+        long generation = mEntryCache.generation();
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            // Find the entries before the update, which may change what the selection matches
+            long[] ids = null;
+            if (tags != null || textChanged) {
+                ids = id == -1
+                        ? queryEntryIds(database, selection, selectionArgs) : new long[] { id };
+            }
+            String idSelection = ids == null ? null : idSelectionOf(ids);
+            if (textChanged) {
+                SearchIndex.removeCompressed(database, idSelection, null);
+            }
+            rowsUpdated = database.update(DailyEntry.TABLE_NAME, values, selection, selectionArgs);
+            if (tags != null && rowsUpdated != 0) {
+                writeTags(database, ids, tags);
+            }
+            if (textChanged && rowsUpdated != 0) {
+                SearchIndex.addCompressed(database, idSelection, null);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
         // If 1 or more rows were updated, then notify all listeners
         if(rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            // Apply the update to the cached entry, or drop whatever entries it may have changed
+            if (id == -1) {
+                evictCachedEntries();
+            } else {
+                Object[] cached = mEntryCache.peek(id);
+                Object[] row = cached == null ? null : mergeEntryRow(cached.clone(), values, body);
+                cacheWrittenEntry(id, row, generation);
+            }
+            notifyChange(id == -1 ? uri : DailyEntry.buildChangeUri(id, DailyEntry.CHANGE_UPDATE));
         }
 
 
@@ -205,39 +1153,407 @@ public class EntryProvider extends ContentProvider{
         return rowsUpdated;
     }
 
+    /**
+     * Save the draft of an entry, replacing its previous draft. Drafts are saved as the user
+     * types, so nobody is notified; the editor only reads its draft when it opens.
+     * Return 1 if the draft was saved.
+     */
+    private int saveDraft(long entryId, ContentValues values) {
+        values = new ContentValues(values);
+        values.put(DraftEntry._ID, entryId);
+        if (!values.containsKey(DraftEntry.COLUMN_MODIFIED)) {
+            values.put(DraftEntry.COLUMN_MODIFIED, System.currentTimeMillis());
+        }
+
+        SQLiteDatabase database = mEntryDbHelper.getWritableDatabase();
+        long id = database.insertWithOnConflict(DraftEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        return id == -1 ? 0 : 1;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        int rowsDeleted = delete(match, uri, selection, selectionArgs);
+        mMetrics.record(ProviderMetrics.DELETE, match, System.nanoTime() - start, rowsDeleted, 0);
+        return rowsDeleted;
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
         // Get writeable database
         SQLiteDatabase database = mEntryDbHelper.getWritableDatabase();
 
         // Track the number of rows that were deleted
         int rowsDeleted;
 
-        final int match = sUriMatcher.match(uri);
         switch (match) {
             case ENTRIES:
+                if (selection == null) {
+                    rowsDeleted = deleteAllEntries(database);
+                    break;
+                }
+
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(DailyEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = deleteEntries(database, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    evictCachedEntries();
+                }
                 break;
             case ENTRY_ID:
                 // Delete a single row given by the ID in the URI
+                long id = ContentUris.parseId(uri);
                 selection = DailyEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(DailyEntry.TABLE_NAME, selection, selectionArgs);
+                selectionArgs = new String[] { String.valueOf(id) };
+                rowsDeleted = deleteEntries(database, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    evictCachedEntry(id);
+                    uri = DailyEntry.buildChangeUri(id, DailyEntry.CHANGE_DELETE);
+                }
                 break;
+            case DRAFT_ID:
+                // Drafts are not observed, see saveDraft()
+                return database.delete(DraftEntry.TABLE_NAME, DraftEntry._ID + "=?",
+                        new String[] { String.valueOf(ContentUris.parseId(uri)) });
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
         // If 1 or more rows were deleted, then notify all listeners
         if (rowsDeleted !=0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         // Returns the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Deletes the selected entries in one transaction, removing the text of compressed bodies
+     * from the search index first, see {@link SearchIndex}. Returns the number of entries deleted.
+     */
+    private static int deleteEntries(SQLiteDatabase database, String selection,
+                                     String[] selectionArgs) {
+        database.beginTransaction();
+        try {
+            SearchIndex.removeCompressed(database, selection, selectionArgs);
+            int rowsDeleted = database.delete(DailyEntry.TABLE_NAME, selection, selectionArgs);
+            database.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes all entries with a single statement in one transaction, so the triggers log every
+     * delete and clear the tags and summary of the days along with it. The drafts go in the same
+     * transaction, those of new entries included. The search index is rebuilt from the now empty
+     * table, rather than removing the compressed bodies one by one.
+     * The freed space is reclaimed in the background once the delete has committed. Returns the
+     * number of entries deleted.
+     */
+    private int deleteAllEntries(SQLiteDatabase database) {
+        int rowsDeleted;
+        database.beginTransaction();
+        try {
+            rowsDeleted = database.delete(DailyEntry.TABLE_NAME, null, null);
+            database.delete(DraftEntry.TABLE_NAME, null, null);
+            database.execSQL("INSERT INTO " + EntryDbHelper.TABLE_ENTRIES_FTS + "("
+                    + EntryDbHelper.TABLE_ENTRIES_FTS + ") VALUES('rebuild')");
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (rowsDeleted != 0) {
+            evictCachedEntries();
+            PendingBatch batch = mPendingBatch.get();
+            if (batch != null) {
+                batch.mReclaimSpace = true;
+            } else {
+                reclaimSpaceInBackground();
+            }
+        }
+        return rowsDeleted;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        switch (method) {
+            case EntryContract.METHOD_SET_BODY_COMPRESSION:
+                setBodyCompressionEnabled(Boolean.parseBoolean(arg));
+                return null;
+            case EntryContract.METHOD_GET_ENTRY_CACHE_STATS:
+                Bundle stats = new Bundle();
+                stats.putLong(EntryContract.KEY_CACHE_HITS, mEntryCache.hitCount());
+                stats.putLong(EntryContract.KEY_CACHE_MISSES, mEntryCache.missCount());
+                return stats;
+            case EntryContract.METHOD_GET_METRICS:
+                return mMetrics.toBundle();
+            case EntryContract.METHOD_ACKNOWLEDGE_CHANGES:
+                acknowledgeChanges(parseLongArg(method, arg));
+                return null;
+            case EntryContract.METHOD_SET_SLOW_QUERY_THRESHOLD:
+                mSlowQueries.setThresholdMillis(parseLongArg(method, arg));
+                return null;
+            case EntryContract.METHOD_GET_SLOW_QUERIES:
+                return mSlowQueries.toBundle();
+            case EntryContract.METHOD_GET_ENTRY:
+                Object[] row = readCachedEntry(mEntryDbHelper.getReadableDatabase(),
+                        parseLongArg(method, arg));
+                return row == null ? null : EntryCache.toBundle(row);
+            case EntryContract.METHOD_GET_ENTRIES:
+                long[] ids = extras == null ? null : extras.getLongArray(EntryContract.KEY_IDS);
+                if (ids == null) {
+                    throw new IllegalArgumentException("No ids of entries to read");
+                }
+                Bundle entries = new Bundle();
+                entries.putParcelableArrayList(EntryContract.KEY_ENTRIES, getEntries(ids));
+                return entries;
+            case EntryContract.METHOD_IMPORT_ENTRIES:
+                ParcelFileDescriptor archive = extras == null ? null
+                        : (ParcelFileDescriptor) extras.getParcelable(EntryContract.KEY_ARCHIVE);
+                if (archive == null) {
+                    throw new IllegalArgumentException("No archive to import");
+                }
+                Bundle result = new Bundle();
+                result.putInt(EntryContract.KEY_IMPORTED_COUNT, importEntries(archive));
+                return result;
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    /**
+     * Returns the number given as the arg of a provider method.
+     *
+     * @throws IllegalArgumentException if the arg is missing or not a number
+     */
+    private static long parseLongArg(String method, String arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("No arg given to " + method);
+        }
+        try {
+            return Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid arg given to " + method + ": " + arg, e);
+        }
+    }
+
+    /**
+     * Reads the archive of all entries, see {@link EntryContract#EXPORT_URI}. The entries are
+     * written into a pipe on a background thread while the caller reads the other end.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != EXPORT || !"r".equals(mode)) {
+            throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+        }
+        return openPipeHelper(uri, EntryContract.EXPORT_MIME_TYPE, null, null,
+                new PipeDataWriter<Void>() {
+                    @Override
+                    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri,
+                                                String mimeType, Bundle opts, Void args) {
+                        // The pipe is closed by the caller once the archive is written
+                        OutputStream out = new FileOutputStream(output.getFileDescriptor());
+                        try {
+                            EntryArchive.write(mEntryDbHelper.getReadableDatabase(), out);
+                        } catch (IOException e) {
+                            // Most likely the reader stopped reading
+                            Log.w(LOG_TAG, "Export of the entries stopped", e);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Inserts the entries of the archive in chunks, see {@link EntryContract#METHOD_IMPORT_ENTRIES},
+     * and notifies the listeners once at the end. Returns the number of entries inserted.
+     */
+    private int importEntries(ParcelFileDescriptor archive) {
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(archive);
+        try {
+            return EntryArchive.read(in, new EntryArchive.Inserter() {
+                @Override
+                public int insert(ContentValues[] entries) {
+                    return insertEntries(entries);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read the archive", e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Cannot close the archive", e);
+            }
+            // Chunks inserted before an error stay
+            notifyChange(DailyEntry.CONTENT_URI);
+        }
+    }
+
+    /**
+     * Writes the metrics of the operations and the slow queries, e.g. for
+     * "adb shell dumpsys activity provider com.jingkastudio.android.hippocampus".
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        mSlowQueries.dump(writer);
+        writer.println("Entry cache: " + mEntryCache.hitCount() + " hits, "
+                + mEntryCache.missCount() + " misses");
+    }
+
+    /**
+     * Returns whether large bodies are stored compressed.
+     */
+    private boolean isBodyCompressionEnabled() {
+        return mCompressBodies;
+    }
+
+    /**
+     * Turns the compression of large bodies on or off, and converts the bodies of the existing
+     * entries accordingly on the background thread. A conversion still running for the
+     * previous setting stops at its next batch.
+     */
+    private void setBodyCompressionEnabled(final boolean enabled) {
+        mCompressBodies = enabled;
+        SharedPreferences preferences =
+                getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        preferences.edit().putBoolean(PREF_COMPRESS_BODIES, enabled).apply();
+
+        mBackground.execute(new Runnable() {
+            @Override
+            public void run() {
+                int converted = BodyCompression.migrate(mEntryDbHelper.getWritableDatabase(),
+                        enabled, new BodyCompression.StopCondition() {
+                            @Override
+                            public boolean shouldStop() {
+                                // Stop if the mode was switched again meanwhile, or at shutdown
+                                return isBodyCompressionEnabled() != enabled
+                                        || Thread.currentThread().isInterrupted();
+                            }
+                        });
+                if (converted != 0) {
+                    notifyChange(DailyEntry.CONTENT_URI);
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves the body in the values to the compressed body column if compression is on and the
+     * body is large enough, and clears the compressed body otherwise. The values must already
+     * hold the preview, which is computed from the plain body.
+     */
+    private void storeBody(ContentValues values) {
+        String body = values.getAsString(DailyEntry.COLUMN_BODY);
+        if (isBodyCompressionEnabled() && BodyCompression.shouldCompress(body)) {
+            values.putNull(DailyEntry.COLUMN_BODY);
+            values.put(EntryDbHelper.COLUMN_BODY_COMPRESSED, BodyCompression.compress(body));
+        } else {
+            values.putNull(EntryDbHelper.COLUMN_BODY_COMPRESSED);
+        }
+    }
+
+    /**
+     * Caches the row of an entry that was just written, or drops the entry from the cache if the
+     * row is null. Inside of a batch the entry is only dropped, as the batch may still roll back.
+     *
+     * @param generation of the cache, taken before the write
+     */
+    private void cacheWrittenEntry(long id, Object[] row, long generation) {
+        if (mPendingBatch.get() != null) {
+            evictCachedEntry(id);
+        } else {
+            mEntryCache.write(id, row, generation);
+        }
+    }
+
+    /**
+     * Drops an entry that was just changed from the cache. Inside of a batch it is dropped again
+     * once the batch commits, as it may be read back into the cache meanwhile.
+     */
+    private void evictCachedEntry(long id) {
+        mEntryCache.evict(id);
+        PendingBatch batch = mPendingBatch.get();
+        if (batch != null) {
+            batch.mEvictedIds.add(id);
+        }
+    }
+
+    /**
+     * Drops all entries from the cache, after a change that may have touched any of them.
+     */
+    private void evictCachedEntries() {
+        mEntryCache.evictAll();
+        PendingBatch batch = mPendingBatch.get();
+        if (batch != null) {
+            batch.mEvictAll = true;
+        }
+    }
+
+    /**
+     * Apply all the operations in a single transaction, so a mixed batch of inserts, updates and
+     * deletes either commits as a whole or not at all. The change notifications of the
+     * operations are collected, de-duplicated and sent once the batch has committed, so the
+     * listeners requery once instead of once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // A nested batch joins the transaction and notifications of the enclosing one
+        if (mPendingBatch.get() != null) {
+            return super.applyBatch(operations);
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mEntryDbHelper.getWritableDatabase();
+
+        PendingBatch batch = new PendingBatch();
+        ContentProviderResult[] results;
+        mPendingBatch.set(batch);
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mPendingBatch.remove();
+
+            // Drop the changed entries again, in case they were cached before the batch ended
+            if (batch.mEvictAll) {
+                mEntryCache.evictAll();
+            } else {
+                for (long id : batch.mEvictedIds) {
+                    mEntryCache.evict(id);
+                }
+            }
+        }
+
+        // The batch has committed, notify all listeners once per changed URI
+        for (Uri changedUri : batch.mChangedUris) {
+            notifyChange(changedUri);
+        }
+        if (batch.mReclaimSpace) {
+            reclaimSpaceInBackground();
+        }
+        return results;
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. Inside of a batch the
+     * notification is deferred until the batch commits.
+     */
+    private void notifyChange(Uri uri) {
+        PendingBatch batch = mPendingBatch.get();
+        if (batch != null) {
+            batch.mChangedUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -246,8 +1562,256 @@ public class EntryProvider extends ContentProvider{
                 return DailyEntry.CONTENT_LIST_TYPE;
             case ENTRY_ID:
                 return DailyEntry.CONTENT_ITEM_TYPE;
+            case ENTRY_DATE:
+            case ENTRY_SEARCH:
+            case ENTRY_TAG:
+                return DailyEntry.CONTENT_LIST_TYPE;
+            case TAGS:
+                return TagEntry.CONTENT_LIST_TYPE;
+            case SUMMARY:
+                return DaySummaryEntry.CONTENT_LIST_TYPE;
+            case DRAFT_ID:
+                return DraftEntry.CONTENT_ITEM_TYPE;
+            case EXPORT:
+                return EntryContract.EXPORT_MIME_TYPE;
+            case CHANGES:
+                return ChangeEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Normalizes the {@link DailyEntry#COLUMN_TAG} of the values, see {@link EntryTags#parse}.
+     * Returns the tags to index, or null if the values don't set the tags.
+     */
+    private static List<String> normalizeTags(ContentValues values) {
+        if (!values.containsKey(DailyEntry.COLUMN_TAG)) {
+            return null;
+        }
+        List<String> tags = EntryTags.parse(values.getAsString(DailyEntry.COLUMN_TAG));
+        values.put(DailyEntry.COLUMN_TAG, EntryTags.format(tags));
+        return tags;
+    }
+
+    /**
+     * Replaces the indexed tags of the entries with the given ones. Must be called inside of a
+     * transaction.
+     */
+    private static void writeTags(SQLiteDatabase database, long[] ids, List<String> tags) {
+        EntryTags.Writer writer = new EntryTags.Writer(database);
+        try {
+            for (long id : ids) {
+                writer.setTags(id, tags);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the selection of the entries with the given ids.
+     */
+    private static String idSelectionOf(long[] ids) {
+        StringBuilder selection = new StringBuilder(DailyEntry._ID).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                selection.append(',');
+            }
+            selection.append(ids[i]);
+        }
+        return selection.append(')').toString();
+    }
+
+    /**
+     * Returns the ids of the entries that match the selection.
+     */
+    private static long[] queryEntryIds(SQLiteDatabase database, String selection,
+                                        String[] selectionArgs) {
+        Cursor cursor = database.query(DailyEntry.TABLE_NAME, new String[] { DailyEntry._ID },
+                selection, selectionArgs, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the given arg followed by the selection args of the caller, for a condition put
+     * before the selection of the caller. The selection args may be null, which
+     * {@link DatabaseUtils#appendSelectionArgs} doesn't take as the args appended.
+     */
+    private static String[] prependSelectionArg(String arg, String[] selectionArgs) {
+        return selectionArgs == null ? new String[] { arg }
+                : DatabaseUtils.appendSelectionArgs(new String[] { arg }, selectionArgs);
+    }
+
+    /**
+     * Returns the preview of the given body: its text on a single line, cut to at most
+     * {@link #PREVIEW_LENGTH} characters, the ellipsis marking a cut included. Returns null if
+     * there is no body.
+     */
+    static String previewOf(String body) {
+        if (body == null) {
+            return null;
+        }
+
+        StringBuilder preview = new StringBuilder(Math.min(body.length(), PREVIEW_LENGTH));
+        boolean pendingSpace = false;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (Character.isWhitespace(c)) {
+                // Collapse runs of whitespace and line breaks into a single space
+                pendingSpace = preview.length() > 0;
+                continue;
+            }
+
+            if (preview.length() + (pendingSpace ? 2 : 1) > PREVIEW_LENGTH) {
+                // Cut the body to leave room for the ellipsis, without splitting a surrogate
+                // pair or ending on a space, and mark it as cut
+                int end = Math.min(preview.length(), PREVIEW_LENGTH - 1);
+                if (Character.isHighSurrogate(preview.charAt(end - 1))) {
+                    end--;
+                }
+                while (end > 0 && preview.charAt(end - 1) == ' ') {
+                    end--;
+                }
+                preview.setLength(end);
+                return preview.append('\u2026').toString();
+            }
+
+            if (pendingSpace) {
+                preview.append(' ');
+                pendingSpace = false;
+            }
+            preview.append(c);
+        }
+        return preview.toString();
+    }
+
+    /**
+     * Returns the number of words in the given body, that is the runs of characters between
+     * whitespace. Returns 0 if there is no body.
+     */
+    static int wordCountOf(String body) {
+        if (body == null) {
+            return 0;
+        }
+
+        int wordCount = 0;
+        boolean inWord = false;
+        for (int i = 0; i < body.length(); i++) {
+            boolean whitespace = Character.isWhitespace(body.charAt(i));
+            if (!whitespace && !inWord) {
+                wordCount++;
+            }
+            inWord = !whitespace;
+        }
+        return wordCount;
+    }
+
+    /**
+     * Applies the written values to a row of {@link EntryCache#COLUMNS} and returns it, or returns
+     * null if the values have columns the cache doesn't know, so the row can't be trusted.
+     *
+     * @param body the plain body, as the values may hold it compressed
+     */
+    private static Object[] mergeEntryRow(Object[] row, ContentValues values, String body) {
+        for (String key : values.keySet()) {
+            if (key.equals(EntryDbHelper.COLUMN_BODY_COMPRESSED)
+                    || key.equals(EntryDbHelper.COLUMN_WORD_COUNT)
+                    || key.equals(DailyEntry.COLUMN_SYNCED_MODIFIED)) {
+                // Stored along with the body or for the sync, the cache has no use for them
+                continue;
+            }
+            int column = EntryCache.indexOf(key);
+            if (column == -1) {
+                return null;
+            }
+            if (key.equals(DailyEntry._ID) && !row[column].equals(values.getAsLong(key))) {
+                // The entry moved to another id
+                return null;
+            } else if (key.equals(DailyEntry.COLUMN_BODY)) {
+                row[column] = body;
+            } else if (key.equals(DailyEntry.COLUMN_DATE)
+                    || key.equals(DailyEntry.COLUMN_CREATED)
+                    || key.equals(DailyEntry.COLUMN_MODIFIED)) {
+                // Store the integer columns as the type SQLite returns them as
+                row[column] = values.getAsLong(key);
+            } else {
+                row[column] = values.getAsString(key);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Returns the value of the given column of the current row, as the type it is stored as.
+     */
+    private static Object valueOf(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    /**
+     * Binds the value to the statement, or NULL if there is no value.
+     */
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Returns the value of the given key as a long, or the default value if it is missing.
+     */
+    private static long longOrDefault(ContentValues values, String key, long defaultValue) {
+        Long value = values.getAsLong(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Returns the yyyymmdd day key of the given time in the default time zone.
+     */
+    private static int dateKeyOf(long timeMillis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMillis);
+        return DailyEntry.toDateKey(calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * What an {@link #applyBatch} holds back until it commits.
+     */
+    private static final class PendingBatch {
+
+        /** URIs changed by the batch, to notify once it commits */
+        final Set<Uri> mChangedUris = new LinkedHashSet<>();
+
+        /** Entries changed by the batch, to drop from the cache once it commits */
+        final Set<Long> mEvictedIds = new HashSet<>();
+
+        /** Whether the batch may have changed any entry */
+        boolean mEvictAll;
+
+        /** Whether the batch deleted all entries, to reclaim their space once it commits */
+        boolean mReclaimSpace;
+    }
+}
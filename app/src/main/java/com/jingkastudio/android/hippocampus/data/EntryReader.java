@@ -0,0 +1,148 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Reads the {@link EntryCache#COLUMNS} of a single entry in one query, so the row is read from a
+ * single snapshot of the database. A query fills a cursor window, a block of shared memory, and
+ * a new cursor allocates a new window; the reader keeps a few windows and hands one to each
+ * cursor instead, so reading an entry allocates no shared memory. Reads on several threads run
+ * at once, each with a window of its own; only {@link #POOL_SIZE} windows are kept afterwards.
+ */
+final class EntryReader {
+
+    /**
+     * Number of windows kept for the next reads. Each reserves 2MB of shared memory, which API
+     * levels before 28 don't let a window shrink below.
+     */
+    private static final int POOL_SIZE = 2;
+
+    /** Columns stored as integers, the others are text */
+    private static final String[] INTEGER_COLUMNS = {
+            DailyEntry._ID,
+            DailyEntry.COLUMN_DATE,
+            DailyEntry.COLUMN_CREATED,
+            DailyEntry.COLUMN_MODIFIED };
+
+    /** Index of the body in a row */
+    private static final int BODY_COLUMN = EntryCache.indexOf(DailyEntry.COLUMN_BODY);
+
+    /** Index of the compressed body in the query, after the columns of a row */
+    private static final int COMPRESSED_BODY_COLUMN = EntryCache.COLUMNS.length;
+
+    /** Whether each column of a row is read as an integer */
+    private static final boolean[] IS_INTEGER = new boolean[EntryCache.COLUMNS.length];
+
+    static {
+        for (String column : INTEGER_COLUMNS) {
+            IS_INTEGER[EntryCache.indexOf(column)] = true;
+        }
+    }
+
+    /** Query of the columns of a row and the compressed body, by id */
+    private static final String SQL_READ_ENTRY;
+
+    static {
+        String[] columns = Arrays.copyOf(EntryCache.COLUMNS, EntryCache.COLUMNS.length + 1);
+        columns[COMPRESSED_BODY_COLUMN] = EntryDbHelper.COLUMN_BODY_COMPRESSED;
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+        }
+        SQL_READ_ENTRY = sql.append(" FROM ").append(DailyEntry.TABLE_NAME).append(" WHERE ")
+                .append(DailyEntry._ID).append("=?").toString();
+    }
+
+    /** Windows free for the next reads, created as reads need them */
+    private final ArrayDeque<CursorWindow> mFreeWindows = new ArrayDeque<>(POOL_SIZE);
+
+    /** Whether {@link #close} was called; windows are no longer kept then */
+    private boolean mClosed;
+
+    /**
+     * Returns the row of the entry with the given id, with the body inflated, or null if there is
+     * no such entry.
+     */
+    Object[] read(SQLiteDatabase database, long id) {
+        CursorWindow window = obtainWindow();
+        try {
+            return read(database, id, window);
+        } finally {
+            recycleWindow(window);
+        }
+    }
+
+    private static Object[] read(SQLiteDatabase database, long id, CursorWindow window) {
+        Cursor cursor = database.rawQuery(SQL_READ_ENTRY, new String[] { String.valueOf(id) });
+        try {
+            if (cursor instanceof SQLiteCursor) {
+                // The cursor releases the window when closed; keep it for the next read
+                window.acquireReference();
+                ((SQLiteCursor) cursor).setWindow(window);
+            }
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Object[] row = new Object[EntryCache.COLUMNS.length];
+            for (int i = 0; i < row.length; i++) {
+                if (i == BODY_COLUMN) {
+                    row[i] = BodyCompression.readBody(cursor, i, COMPRESSED_BODY_COLUMN);
+                } else if (cursor.isNull(i)) {
+                    row[i] = null;
+                } else {
+                    row[i] = IS_INTEGER[i] ? cursor.getLong(i) : cursor.getString(i);
+                }
+            }
+            return row;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns a free window, or a new one if all are in use.
+     */
+    private synchronized CursorWindow obtainWindow() {
+        CursorWindow window = mFreeWindows.poll();
+        return window != null ? window : new CursorWindow(EntryReader.class.getSimpleName());
+    }
+
+    /**
+     * Keeps the window for the next read, or frees it if enough windows are kept.
+     */
+    private synchronized void recycleWindow(CursorWindow window) {
+        if (mClosed || mFreeWindows.size() >= POOL_SIZE) {
+            window.close();
+        } else {
+            mFreeWindows.push(window);
+        }
+    }
+
+    /**
+     * Frees the windows kept for the next reads, e.g. when memory runs low. Later reads create
+     * new ones.
+     */
+    synchronized void trim() {
+        for (CursorWindow window : mFreeWindows) {
+            window.close();
+        }
+        mFreeWindows.clear();
+    }
+
+    /**
+     * Frees the windows. Reads still under way free theirs when done; later reads each use a
+     * window of their own, freed right after.
+     */
+    synchronized void close() {
+        mClosed = true;
+        trim();
+    }
+}
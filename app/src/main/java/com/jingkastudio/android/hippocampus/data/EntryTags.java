@@ -0,0 +1,122 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.TagEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tags of the entries. The provider takes the tags of an entry as the comma separated list in
+ * {@link DailyEntry#COLUMN_TAG}, and stores them normalized in the {@link TagEntry#TABLE_NAME}
+ * table plus the {@link EntryDbHelper#TABLE_ENTRY_TAGS} join table, so the entries with a tag are
+ * found with an index lookup.
+ */
+final class EntryTags {
+
+    /** Separator of the tags in {@link DailyEntry#COLUMN_TAG} */
+    private static final String SEPARATOR = ",";
+
+    // To prevent someone from accidentally instantiating the tags class
+    private EntryTags() {}
+
+    /**
+     * Returns the tags in a comma separated list: trimmed, without empty or duplicate tags.
+     * Tags that only differ in the case of ASCII letters are the same tag, the first spelling
+     * wins, as they are for the NOCASE collation of {@link TagEntry#COLUMN_NAME}.
+     */
+    static List<String> parse(String tags) {
+        List<String> names = new ArrayList<>();
+        if (tags == null) {
+            return names;
+        }
+        Set<String> seen = new HashSet<>();
+        for (String tag : tags.split(SEPARATOR)) {
+            String name = tag.trim();
+            if (!name.isEmpty() && seen.add(foldCase(name))) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the name with the ASCII letters in lower case, the only ones the NOCASE collation
+     * folds. Other letters keep their case, so tags that differ in the case of an accented
+     * letter stay different tags, in the table as here.
+     */
+    static String foldCase(String name) {
+        char[] folded = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (folded == null) {
+                    folded = name.toCharArray();
+                }
+                folded[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return folded == null ? name : new String(folded);
+    }
+
+    /**
+     * Returns the tags as the comma separated list stored in {@link DailyEntry#COLUMN_TAG}, or
+     * null if there are none.
+     */
+    static String format(List<String> names) {
+        return names.isEmpty() ? null : TextUtils.join(SEPARATOR + " ", names);
+    }
+
+    /**
+     * Writes the tags of entries, reusing its compiled statements for any number of entries.
+     * Must be used inside of a transaction, and closed after use.
+     */
+    static final class Writer {
+
+        private final SQLiteStatement mInsertTag;
+        private final SQLiteStatement mSelectTag;
+        private final SQLiteStatement mClearEntryTags;
+        private final SQLiteStatement mInsertEntryTag;
+
+        Writer(SQLiteDatabase db) {
+            mInsertTag = db.compileStatement("INSERT OR IGNORE INTO " + TagEntry.TABLE_NAME
+                    + " (" + TagEntry.COLUMN_NAME + ") VALUES (?)");
+            mSelectTag = db.compileStatement("SELECT " + TagEntry._ID + " FROM "
+                    + TagEntry.TABLE_NAME + " WHERE " + TagEntry.COLUMN_NAME + " = ?");
+            mClearEntryTags = db.compileStatement("DELETE FROM " + EntryDbHelper.TABLE_ENTRY_TAGS
+                    + " WHERE " + EntryDbHelper.COLUMN_ENTRY_ID + " = ?");
+            mInsertEntryTag = db.compileStatement("INSERT OR IGNORE INTO "
+                    + EntryDbHelper.TABLE_ENTRY_TAGS + " (" + EntryDbHelper.COLUMN_TAG_ID + ", "
+                    + EntryDbHelper.COLUMN_ENTRY_ID + ") VALUES (?, ?)");
+        }
+
+        /**
+         * Replaces the tags of the entry with the given ones, adding the tags that are new.
+         */
+        void setTags(long entryId, List<String> names) {
+            mClearEntryTags.bindLong(1, entryId);
+            mClearEntryTags.executeUpdateDelete();
+            for (String name : names) {
+                mInsertTag.bindString(1, name);
+                mInsertTag.executeInsert();
+                mSelectTag.bindString(1, name);
+                mInsertEntryTag.bindLong(1, mSelectTag.simpleQueryForLong());
+                mInsertEntryTag.bindLong(2, entryId);
+                mInsertEntryTag.executeInsert();
+            }
+        }
+
+        void close() {
+            mInsertTag.close();
+            mSelectTag.close();
+            mClearEntryTags.close();
+            mInsertEntryTag.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Collects latency samples of a benchmarked operation and reports their percentiles.
+ */
+final class LatencyRecorder {
+
+    /** Name of the operation, used in the summary */
+    private final String mName;
+
+    /** Recorded samples, in nanoseconds */
+    private long[] mSamples = new long[256];
+
+    /** Number of recorded samples */
+    private int mCount;
+
+    /** Total number of operations covered by the samples, for the throughput */
+    private long mOperations;
+
+    /**
+     * Constructs a new instance of {@link LatencyRecorder}.
+     *
+     * @param name of the operation, used in the summary
+     */
+    LatencyRecorder(String name) {
+        mName = name;
+    }
+
+    /**
+     * Records the latency of one operation.
+     *
+     * @param nanos time the operation took, in nanoseconds
+     */
+    void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * Records the latency of one sample that covered several operations, e.g. a batch.
+     *
+     * @param nanos      time the sample took, in nanoseconds
+     * @param operations number of operations done in the sample
+     */
+    void record(long nanos, int operations) {
+        if (mCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, mCount * 2);
+        }
+        mSamples[mCount++] = nanos;
+        mOperations += operations;
+    }
+
+    /**
+     * Returns the latency below which the given fraction of the samples fall, in nanoseconds.
+     *
+     * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+     */
+    long percentile(double fraction) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * mCount) - 1;
+        return sorted[Math.max(0, Math.min(index, mCount - 1))];
+    }
+
+    /**
+     * Returns the number of operations per second over all samples.
+     */
+    double throughput() {
+        long total = 0;
+        for (int i = 0; i < mCount; i++) {
+            total += mSamples[i];
+        }
+        return total == 0 ? 0 : mOperations * 1e9 / total;
+    }
+
+    /**
+     * Returns a one line summary with the throughput and latency percentiles, in microseconds.
+     */
+    String summary() {
+        return String.format(Locale.US, "%s: n=%d, %.0f ops/s, p50=%dus, p90=%dus, p99=%dus, max=%dus",
+                mName, mOperations, throughput(), percentile(0.5) / 1000, percentile(0.9) / 1000,
+                percentile(0.99) / 1000, percentile(1) / 1000);
+    }
+}
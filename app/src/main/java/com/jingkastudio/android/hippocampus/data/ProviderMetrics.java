@@ -0,0 +1,270 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.os.Bundle;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and row counts of the operations of {@link EntryProvider}, per operation and per kind
+ * of URI. The latencies go into histograms of power-of-two buckets of microseconds, so recording
+ * an operation only increments counters in arrays that are allocated up front. The counters are
+ * atomic, so concurrent operations record without taking a lock; a reader may see an operation
+ * counted in some of them and not yet in the others.
+ *
+ * Percentiles are read from the histograms and are therefore the upper bound of their bucket,
+ * at most twice the real value. The maximum is exact.
+ */
+final class ProviderMetrics {
+
+    /** Operations of the provider */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+
+    /** Names of the operations in the keys of {@link #toBundle}, by operation */
+    private static final String[] OPERATION_NAMES =
+            { "query", "insert", "bulk_insert", "update", "delete" };
+
+    /**
+     * Number of latency buckets. Bucket 0 counts latencies under a microsecond, bucket b those
+     * from 2^(b-1) up to 2^b microseconds, and the last one everything from about 4 seconds up.
+     */
+    private static final int BUCKET_COUNT = 24;
+
+    /** Bytes counted for a numeric column */
+    private static final int NUMBER_BYTES = 8;
+
+    /** Buffer the strings of a cursor window are copied into to measure them */
+    private static final ThreadLocal<CharArrayBuffer> sBuffer = new ThreadLocal<CharArrayBuffer>() {
+        @Override
+        protected CharArrayBuffer initialValue() {
+            return new CharArrayBuffer(256);
+        }
+    };
+
+    /** URI matcher codes of the kinds of URIs, and their names in the keys */
+    private final int[] mMatches;
+    private final String[] mUriNames;
+
+    /** Per operation and kind of URI, at {@link #indexOf} */
+    private final AtomicLongArray mCounts;
+    private final AtomicLongArray mTotalNanos;
+    private final AtomicLongArray mMaxNanos;
+    private final AtomicLongArray mRows;
+    private final AtomicLongArray mBytes;
+
+    /** Buckets of the latencies per operation and kind of URI, from {@link #indexOf} on */
+    private final AtomicLongArray mHistograms;
+
+    /**
+     * Constructs a new instance of {@link ProviderMetrics}.
+     *
+     * @param matches URI matcher codes of the kinds of URIs to record
+     * @param uriNames names of the kinds of URIs, in the same order
+     */
+    ProviderMetrics(int[] matches, String[] uriNames) {
+        mMatches = matches;
+        mUriNames = uriNames;
+        int length = OPERATION_NAMES.length * matches.length;
+        mCounts = new AtomicLongArray(length);
+        mTotalNanos = new AtomicLongArray(length);
+        mMaxNanos = new AtomicLongArray(length);
+        mRows = new AtomicLongArray(length);
+        mBytes = new AtomicLongArray(length);
+        mHistograms = new AtomicLongArray(length * BUCKET_COUNT);
+    }
+
+    /**
+     * Records a finished operation. Operations on URIs of an unknown kind are ignored.
+     *
+     * @param rows number of rows returned or changed
+     * @param bytes approximate number of bytes read, 0 for writes
+     */
+    void record(int operation, int match, long nanos, long rows, long bytes) {
+        int slot = slotOf(match);
+        if (slot == -1) {
+            return;
+        }
+        int index = indexOf(operation, slot);
+        mCounts.incrementAndGet(index);
+        mTotalNanos.addAndGet(index, nanos);
+        long max = mMaxNanos.get(index);
+        while (nanos > max && !mMaxNanos.compareAndSet(index, max, nanos)) {
+            max = mMaxNanos.get(index);
+        }
+        mRows.addAndGet(index, rows);
+        mBytes.addAndGet(index, bytes);
+        mHistograms.incrementAndGet(index * BUCKET_COUNT + bucketOf(nanos / 1000));
+    }
+
+    /**
+     * Returns the metrics of the operations recorded so far, see
+     * {@link EntryContract#METHOD_GET_METRICS} for the keys. Kinds of URIs an operation was never
+     * recorded for are left out.
+     */
+    Bundle toBundle() {
+        Bundle metrics = new Bundle();
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int slot = 0; slot < mMatches.length; slot++) {
+                int index = indexOf(operation, slot);
+                long count = mCounts.get(index);
+                if (count == 0) {
+                    continue;
+                }
+                String prefix = OPERATION_NAMES[operation] + "." + mUriNames[slot] + ".";
+                metrics.putLong(prefix + "count", count);
+                metrics.putLong(prefix + "total_us", mTotalNanos.get(index) / 1000);
+                metrics.putLong(prefix + "p50_us", percentile(index, count, 50));
+                metrics.putLong(prefix + "p90_us", percentile(index, count, 90));
+                metrics.putLong(prefix + "p99_us", percentile(index, count, 99));
+                metrics.putLong(prefix + "max_us", mMaxNanos.get(index) / 1000);
+                metrics.putLong(prefix + "rows", mRows.get(index));
+                metrics.putLong(prefix + "bytes", mBytes.get(index));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Writes the metrics as a table, one line per operation and kind of URI.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Provider operations (latencies in microseconds):");
+        writer.printf("  %-28s %8s %8s %8s %8s %8s %10s %12s%n",
+                "operation", "count", "p50", "p90", "p99", "max", "rows", "bytes");
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int slot = 0; slot < mMatches.length; slot++) {
+                int index = indexOf(operation, slot);
+                long count = mCounts.get(index);
+                if (count == 0) {
+                    continue;
+                }
+                writer.printf("  %-28s %8d %8d %8d %8d %8d %10d %12d%n",
+                        OPERATION_NAMES[operation] + " " + mUriNames[slot],
+                        count,
+                        percentile(index, count, 50),
+                        percentile(index, count, 90),
+                        percentile(index, count, 99),
+                        mMaxNanos.get(index) / 1000,
+                        mRows.get(index),
+                        mBytes.get(index));
+            }
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes of the given number of rows of the cursor, counted
+     * from its first row: 8 bytes per number and 2 per character. Blobs are not counted, as they
+     * can't be measured without copying them; none of the columns of the contract are blobs.
+     *
+     * The row of a windowed cursor is read from its window, which {@link Cursor#getCount} filled,
+     * and the cursor isn't moved. Other cursors hold their values in memory and are measured
+     * through their first row, without copying; they are left before their first row.
+     */
+    static long estimateBytes(Cursor cursor, int rows) {
+        if (rows == 0) {
+            return 0;
+        }
+        if (cursor instanceof AbstractWindowedCursor) {
+            CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+            if (window != null) {
+                return estimateBytes(window, cursor.getColumnCount()) * rows;
+            }
+        }
+        if (!cursor.moveToFirst()) {
+            return 0;
+        }
+        long rowBytes = 0;
+        for (int column = 0; column < cursor.getColumnCount(); column++) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                case Cursor.FIELD_TYPE_FLOAT:
+                    rowBytes += NUMBER_BYTES;
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    rowBytes += 2 * cursor.getString(column).length();
+                    break;
+                default:
+                    break;
+            }
+        }
+        cursor.moveToPosition(-1);
+        return rowBytes * rows;
+    }
+
+    /**
+     * Returns the approximate number of bytes of the first row in the window. Its strings are
+     * copied into a buffer of the thread that is only allocated again for a longer string.
+     */
+    private static long estimateBytes(CursorWindow window, int columns) {
+        int row = window.getStartPosition();
+        long rowBytes = 0;
+        CharArrayBuffer buffer = sBuffer.get();
+        for (int column = 0; column < columns; column++) {
+            switch (window.getType(row, column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                case Cursor.FIELD_TYPE_FLOAT:
+                    rowBytes += NUMBER_BYTES;
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    window.copyStringToBuffer(row, column, buffer);
+                    rowBytes += 2 * buffer.sizeCopied;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return rowBytes;
+    }
+
+    /**
+     * Returns the index of the kind of URI with the given matcher code, or -1 if unknown.
+     */
+    private int slotOf(int match) {
+        for (int slot = 0; slot < mMatches.length; slot++) {
+            if (mMatches[slot] == match) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the counters of the operation on the kind of URI.
+     */
+    private int indexOf(int operation, int slot) {
+        return operation * mMatches.length + slot;
+    }
+
+    /**
+     * Returns the bucket of the latency: the number of bits of the microseconds.
+     */
+    private static int bucketOf(long micros) {
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile of the latencies at the
+     * index, in microseconds.
+     *
+     * @param count number of operations counted at the index
+     */
+    private long percentile(int index, long count, int percent) {
+        long target = (count * percent + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT - 1; bucket++) {
+            seen += mHistograms.get(index * BUCKET_COUNT + bucket);
+            if (seen >= target) {
+                return 1L << bucket;
+            }
+        }
+        return mMaxNanos.get(index) / 1000;
+    }
+}
@@ -0,0 +1,309 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DaySummaryEntry;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Backfills of the schema upgrades. An upgrade step of {@link EntryDbHelper} only runs the cheap
+ * schema changes and {@link #register registers} the backfills its new columns and tables need,
+ * so opening the database after an upgrade never rewrites the whole entries table. The
+ * backfills then run in the background, one batch of entries per transaction, in the order
+ * they were registered.
+ *
+ * The progress of a backfill is the id of the last entry it filled, recorded in the
+ * {@link #TABLE_NAME} table in the same transaction as the batch, so a backfill that was
+ * interrupted resumes where it stopped. A backfill is done when its row is gone.
+ *
+ * Where triggers maintain derived data, they are {@link #guard guarded} to skip the entries a
+ * backfill has not reached yet; the backfill fills those entries from their values at the time
+ * it reaches them.
+ */
+final class SchemaBackfills {
+
+    /** Name of the table of the pending backfills */
+    static final String TABLE_NAME = "backfills";
+
+    /**
+     * Name of the backfill.
+     * Type: TEXT
+     */
+    private static final String COLUMN_NAME = "name";
+
+    /**
+     * Id of the last entry the backfill filled, 0 before the first batch.
+     * Type: INTEGER
+     */
+    private static final String COLUMN_LAST_ID = "last_id";
+
+    /** Computes the previews of the bodies */
+    static final String PREVIEWS = "previews";
+
+    /** Fills the full-text index */
+    static final String SEARCH_INDEX = "search_index";
+
+    /** Indexes the tags of the entries */
+    static final String TAGS = "tags";
+
+    /** Counts the words of the bodies, and adds the entries to the summary of their day */
+    static final String WORD_COUNTS = "word_counts";
+
+    /** Assigns UUIDs to the entries */
+    static final String UUIDS = "uuids";
+
+    /** Number of entries filled per transaction */
+    private static final int BATCH_SIZE = 100;
+
+    // To prevent someone from accidentally instantiating the backfills class
+    private SchemaBackfills() {}
+
+    /**
+     * Creates the table of the pending backfills, unless it exists.
+     */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                + COLUMN_NAME + " TEXT PRIMARY KEY, "
+                + COLUMN_LAST_ID + " INTEGER NOT NULL DEFAULT 0);");
+    }
+
+    /**
+     * Registers the backfill to run, from the first entry on. Registering a pending backfill
+     * again starts it over.
+     */
+    static void register(SQLiteDatabase db, String name) {
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE_NAME + " (" + COLUMN_NAME + ", "
+                + COLUMN_LAST_ID + ") VALUES (?, 0)", new Object[] { name });
+    }
+
+    /**
+     * Returns the WHEN clause of a trigger that skips the entries the backfill has not reached.
+     *
+     * @param row "new" or "old", the row of the trigger whose id is checked
+     */
+    static String guard(String name, String row) {
+        return " WHEN " + reached(name, row + "." + DailyEntry._ID);
+    }
+
+    /**
+     * Returns the SQL condition that the backfill has reached the entry, or is not pending.
+     *
+     * @param id SQL expression of the id of the entry
+     */
+    static String reached(String name, String id) {
+        return "NOT EXISTS (SELECT 1 FROM " + TABLE_NAME + " WHERE " + COLUMN_NAME + " = '"
+                + name + "' AND " + COLUMN_LAST_ID + " < " + id + ")";
+    }
+
+    /**
+     * Runs one batch of the first pending backfill. Returns false if there is no backfill left.
+     */
+    static boolean runBatch(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(TABLE_NAME, new String[] { COLUMN_NAME, COLUMN_LAST_ID },
+                    null, null, null, null, "rowid", "1");
+            String name;
+            long lastId;
+            try {
+                if (!cursor.moveToFirst()) {
+                    return false;
+                }
+                name = cursor.getString(0);
+                lastId = cursor.getLong(1);
+            } finally {
+                cursor.close();
+            }
+
+            lastId = fill(db, name, lastId);
+            if (lastId == -1) {
+                db.delete(TABLE_NAME, COLUMN_NAME + " = ?", new String[] { name });
+            } else {
+                db.execSQL("UPDATE " + TABLE_NAME + " SET " + COLUMN_LAST_ID + " = ? WHERE "
+                        + COLUMN_NAME + " = ?", new Object[] { lastId, name });
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Fills the batch of entries after the given id. Returns the id of the last entry filled, or
+     * -1 if there were none left.
+     */
+    private static long fill(SQLiteDatabase db, String name, long lastId) {
+        switch (name) {
+            case PREVIEWS:
+                return fillPreviews(db, lastId);
+            case SEARCH_INDEX:
+                return fillSearchIndex(db, lastId);
+            case TAGS:
+                return fillTags(db, lastId);
+            case WORD_COUNTS:
+                return fillWordCounts(db, lastId);
+            case UUIDS:
+                return fillUuids(db, lastId);
+            default:
+                // A backfill of a newer version of the app, after a downgrade; drop it
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the batch of entries after the given id, with the given columns.
+     */
+    private static Cursor queryBatch(SQLiteDatabase db, long lastId, String... columns) {
+        return db.query(DailyEntry.TABLE_NAME, columns, DailyEntry._ID + " > ?",
+                new String[] { String.valueOf(lastId) }, null, null, DailyEntry._ID,
+                String.valueOf(BATCH_SIZE));
+    }
+
+    private static long fillPreviews(SQLiteDatabase db, long lastId) {
+        Cursor cursor = queryBatch(db, lastId, DailyEntry._ID, DailyEntry.COLUMN_BODY,
+                EntryDbHelper.COLUMN_BODY_COMPRESSED);
+        SQLiteStatement update = db.compileStatement("UPDATE " + DailyEntry.TABLE_NAME + " SET "
+                + DailyEntry.COLUMN_PREVIEW + " = ? WHERE " + DailyEntry._ID + " = ?");
+        try {
+            if (cursor.getCount() == 0) {
+                return -1;
+            }
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                String preview = EntryProvider.previewOf(BodyCompression.readBody(cursor, 1, 2));
+                update.clearBindings();
+                if (preview != null) {
+                    update.bindString(1, preview);
+                }
+                update.bindLong(2, lastId);
+                update.executeUpdateDelete();
+            }
+            return lastId;
+        } finally {
+            update.close();
+            cursor.close();
+        }
+    }
+
+    private static long fillSearchIndex(SQLiteDatabase db, long lastId) {
+        Cursor cursor = queryBatch(db, lastId, DailyEntry._ID);
+        long batchLastId;
+        try {
+            if (!cursor.moveToLast()) {
+                return -1;
+            }
+            batchLastId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        SearchIndex.fill(db, lastId, batchLastId);
+        return batchLastId;
+    }
+
+    private static long fillUuids(SQLiteDatabase db, long lastId) {
+        Cursor cursor = queryBatch(db, lastId, DailyEntry._ID);
+        SQLiteStatement update = db.compileStatement("UPDATE " + DailyEntry.TABLE_NAME + " SET "
+                + DailyEntry.COLUMN_UUID + " = ? WHERE " + DailyEntry._ID + " = ? AND "
+                + DailyEntry.COLUMN_UUID + " IS NULL");
+        try {
+            if (cursor.getCount() == 0) {
+                return -1;
+            }
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                update.bindString(1, UUID.randomUUID().toString());
+                update.bindLong(2, lastId);
+                update.executeUpdateDelete();
+            }
+            return lastId;
+        } finally {
+            update.close();
+            cursor.close();
+        }
+    }
+
+    private static long fillTags(SQLiteDatabase db, long lastId) {
+        Cursor cursor = queryBatch(db, lastId, DailyEntry._ID, DailyEntry.COLUMN_TAG);
+        EntryTags.Writer writer = new EntryTags.Writer(db);
+        SQLiteStatement update = db.compileStatement("UPDATE " + DailyEntry.TABLE_NAME + " SET "
+                + DailyEntry.COLUMN_TAG + " = ? WHERE " + DailyEntry._ID + " = ?");
+        try {
+            if (cursor.getCount() == 0) {
+                return -1;
+            }
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                if (cursor.isNull(1)) {
+                    continue;
+                }
+                List<String> tags = EntryTags.parse(cursor.getString(1));
+                writer.setTags(lastId, tags);
+
+                // Store the tags the way the provider stores them
+                String formatted = EntryTags.format(tags);
+                update.clearBindings();
+                if (formatted != null) {
+                    update.bindString(1, formatted);
+                }
+                update.bindLong(2, lastId);
+                update.executeUpdateDelete();
+            }
+            return lastId;
+        } finally {
+            update.close();
+            writer.close();
+            cursor.close();
+        }
+    }
+
+    private static long fillWordCounts(SQLiteDatabase db, long lastId) {
+        Cursor cursor = queryBatch(db, lastId, DailyEntry._ID, DailyEntry.COLUMN_BODY,
+                EntryDbHelper.COLUMN_BODY_COMPRESSED, DailyEntry.COLUMN_DATE,
+                DailyEntry.COLUMN_MODIFIED);
+        SQLiteStatement update = db.compileStatement("UPDATE " + DailyEntry.TABLE_NAME + " SET "
+                + EntryDbHelper.COLUMN_WORD_COUNT + " = ? WHERE " + DailyEntry._ID + " = ?");
+        SQLiteStatement addDay = db.compileStatement("INSERT OR IGNORE INTO "
+                + DaySummaryEntry.TABLE_NAME + " (" + DaySummaryEntry.COLUMN_DATE + ") VALUES (?)");
+        SQLiteStatement addEntry = db.compileStatement("UPDATE " + DaySummaryEntry.TABLE_NAME
+                + " SET " + DaySummaryEntry.COLUMN_ENTRY_COUNT + " = "
+                + DaySummaryEntry.COLUMN_ENTRY_COUNT + " + 1, "
+                + DaySummaryEntry.COLUMN_WORD_COUNT + " = "
+                + DaySummaryEntry.COLUMN_WORD_COUNT + " + ?, "
+                + DaySummaryEntry.COLUMN_MODIFIED + " = max(" + DaySummaryEntry.COLUMN_MODIFIED
+                + ", ?) WHERE " + DaySummaryEntry.COLUMN_DATE + " = ?");
+        try {
+            if (cursor.getCount() == 0) {
+                return -1;
+            }
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                int wordCount = EntryProvider.wordCountOf(BodyCompression.readBody(cursor, 1, 2));
+                long date = cursor.getLong(3);
+
+                // The summary triggers skip the entry until the batch is recorded
+                update.bindLong(1, wordCount);
+                update.bindLong(2, lastId);
+                update.executeUpdateDelete();
+                addDay.bindLong(1, date);
+                addDay.executeInsert();
+                addEntry.bindLong(1, wordCount);
+                addEntry.bindLong(2, cursor.getLong(4));
+                addEntry.bindLong(3, date);
+                addEntry.executeUpdateDelete();
+            }
+            return lastId;
+        } finally {
+            addEntry.close();
+            addDay.close();
+            update.close();
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+/**
+ * Keeps the full text of compressed bodies in the full-text index. SQL can't inflate a body, so
+ * the search triggers of {@link EntryDbHelper} leave compressed entries alone, and whoever writes
+ * them indexes them here, in the transaction of the write: the old text is removed before the
+ * entries change or are deleted, and the new text added after they were written.
+ *
+ * The index removes the text of an entry by reading it back from
+ * {@link EntryDbHelper#VIEW_ENTRIES_TEXT}. For the moment of the removal, the inflated body of a
+ * compressed entry is staged in {@link EntryDbHelper#TABLE_STAGED_BODIES}, where the view finds
+ * it. Entries the {@link SchemaBackfills#SEARCH_INDEX} backfill has not reached are left to it.
+ */
+final class SearchIndex {
+
+    /** Condition that the search index backfill has reached an entry */
+    private static final String INDEXED = SchemaBackfills.reached(SchemaBackfills.SEARCH_INDEX,
+            DailyEntry.TABLE_NAME + "." + DailyEntry._ID);
+
+    // To prevent someone from accidentally instantiating the search index class
+    private SearchIndex() {}
+
+    /**
+     * Adds the text of an entry whose body was just stored compressed.
+     */
+    static void addCompressed(SQLiteDatabase db, long id, String title, String body) {
+        if (isIndexed(db, id)) {
+            insert(db, id, title, body);
+        }
+    }
+
+    /**
+     * Removes the text of an entry whose body is stored compressed, before it is changed.
+     *
+     * @param body the body of the entry, inflated
+     */
+    static void removeCompressed(SQLiteDatabase db, long id, String body) {
+        if (isIndexed(db, id)) {
+            stage(db, id, body);
+            delete(db, id);
+            db.delete(EntryDbHelper.TABLE_STAGED_BODIES, null, null);
+        }
+    }
+
+    /**
+     * Adds the text of the selected entries whose body is stored compressed, after they were
+     * written.
+     */
+    static void addCompressed(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = queryCompressed(db, selection, selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                insert(db, cursor.getLong(0), cursor.getString(1),
+                        BodyCompression.decompress(cursor.getBlob(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Removes the text of the selected entries whose body is stored compressed, before they are
+     * changed or deleted.
+     */
+    static void removeCompressed(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = queryCompressed(db, selection, selectionArgs);
+        try {
+            if (cursor.getCount() == 0) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                stage(db, id, BodyCompression.decompress(cursor.getBlob(2)));
+                delete(db, id);
+            }
+            db.delete(EntryDbHelper.TABLE_STAGED_BODIES, null, null);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Indexes the entries after fromId up to toId, for the {@link SchemaBackfills#SEARCH_INDEX}
+     * backfill. The plain text is copied from the view, the compressed bodies are inflated.
+     */
+    static void fill(SQLiteDatabase db, long fromId, long toId) {
+        String range = DailyEntry._ID + " > ? AND " + DailyEntry._ID + " <= ?";
+        Object[] rangeArgs = { fromId, toId };
+        db.execSQL("INSERT INTO " + EntryDbHelper.TABLE_ENTRIES_FTS + " (docid, "
+                + DailyEntry.COLUMN_TITLE + ", " + DailyEntry.COLUMN_BODY + ") SELECT rowid, "
+                + DailyEntry.COLUMN_TITLE + ", " + DailyEntry.COLUMN_BODY + " FROM "
+                + EntryDbHelper.VIEW_ENTRIES_TEXT + " WHERE rowid IN (SELECT " + DailyEntry._ID
+                + " FROM " + DailyEntry.TABLE_NAME + " WHERE " + range + " AND "
+                + EntryDbHelper.COLUMN_BODY_COMPRESSED + " IS NULL)", rangeArgs);
+
+        Cursor cursor = db.query(DailyEntry.TABLE_NAME, new String[] { DailyEntry._ID,
+                        DailyEntry.COLUMN_TITLE, EntryDbHelper.COLUMN_BODY_COMPRESSED },
+                range + " AND " + EntryDbHelper.COLUMN_BODY_COMPRESSED + " IS NOT NULL",
+                new String[] { String.valueOf(fromId), String.valueOf(toId) },
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                insert(db, cursor.getLong(0), cursor.getString(1),
+                        BodyCompression.decompress(cursor.getBlob(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the id, title and compressed body of the selected entries that are compressed and
+     * indexed.
+     */
+    private static Cursor queryCompressed(SQLiteDatabase db, String selection,
+                                          String[] selectionArgs) {
+        String compressed = EntryDbHelper.COLUMN_BODY_COMPRESSED + " IS NOT NULL AND " + INDEXED;
+        return db.query(DailyEntry.TABLE_NAME, new String[] { DailyEntry._ID,
+                        DailyEntry.COLUMN_TITLE, EntryDbHelper.COLUMN_BODY_COMPRESSED },
+                selection == null ? compressed : compressed + " AND (" + selection + ")",
+                selectionArgs, null, null, null);
+    }
+
+    private static boolean isIndexed(SQLiteDatabase db, long id) {
+        Cursor cursor = db.rawQuery("SELECT "
+                        + SchemaBackfills.reached(SchemaBackfills.SEARCH_INDEX, "?"),
+                new String[] { String.valueOf(id) });
+        try {
+            return cursor.moveToFirst() && cursor.getInt(0) != 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void insert(SQLiteDatabase db, long id, String title, String body) {
+        db.execSQL("INSERT INTO " + EntryDbHelper.TABLE_ENTRIES_FTS + " (docid, "
+                + DailyEntry.COLUMN_TITLE + ", " + DailyEntry.COLUMN_BODY + ") VALUES (?, ?, ?)",
+                new Object[] { id, title, body });
+    }
+
+    private static void stage(SQLiteDatabase db, long id, String body) {
+        db.execSQL("INSERT INTO " + EntryDbHelper.TABLE_STAGED_BODIES + " (rowid, "
+                + DailyEntry.COLUMN_BODY + ") VALUES (?, ?)", new Object[] { id, body });
+    }
+
+    private static void delete(SQLiteDatabase db, long id) {
+        db.execSQL("DELETE FROM " + EntryDbHelper.TABLE_ENTRIES_FTS + " WHERE docid = ?",
+                new Object[] { id });
+    }
+}
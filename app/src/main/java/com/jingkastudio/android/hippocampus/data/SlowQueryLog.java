@@ -0,0 +1,186 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Log of the latest queries of {@link EntryProvider} that took longer than a threshold, with
+ * their SQL, duration, number of rows and the plan SQLite chose for them. The plan shows at a
+ * glance whether the query searched an index or scanned a whole table.
+ *
+ * The provider hands the log the SQL of each query it runs. The log only remembers the latest
+ * SQL of each thread, and only explains it once the query turned out slow, so fast queries cost
+ * nothing but the lookup of the thread. The plan is explained without the arguments of the
+ * query, which SQLite takes as NULL; that rarely changes the plan.
+ */
+final class SlowQueryLog {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    /** Threshold of a slow query until it is set otherwise, about three frames */
+    static final long DEFAULT_THRESHOLD_MILLIS = 50;
+
+    /** Number of slow queries kept; older ones are overwritten */
+    private static final int CAPACITY = 32;
+
+    /** SQL of the latest query the current thread ran for the provider */
+    private final ThreadLocal<String> mLastSql = new ThreadLocal<>();
+
+    private volatile long mThresholdNanos = DEFAULT_THRESHOLD_MILLIS * 1000000L;
+
+    /** The slow queries, as a ring of parallel arrays */
+    private final long[] mTimes = new long[CAPACITY];
+    private final String[] mUris = new String[CAPACITY];
+    private final String[] mSql = new String[CAPACITY];
+    private final long[] mDurations = new long[CAPACITY];
+    private final int[] mRows = new int[CAPACITY];
+    private final String[] mPlans = new String[CAPACITY];
+
+    /** Index the next slow query is written to, and the number of slow queries kept */
+    private int mNext;
+    private int mSize;
+
+    /**
+     * Sets the duration from which on a query is slow. 0 logs every query.
+     */
+    void setThresholdMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Threshold cannot be negative: " + millis);
+        }
+        mThresholdNanos = millis * 1000000L;
+    }
+
+    /**
+     * Called when a query of the provider starts, on the thread that runs it, to forget the
+     * queries the thread ran before.
+     */
+    void onQueryStarted() {
+        mLastSql.remove();
+    }
+
+    /**
+     * Called when the provider runs the SQL of a query, on the thread that runs it.
+     */
+    void onQueryRun(String sql) {
+        mLastSql.set(sql);
+    }
+
+    /**
+     * Called when a query of the provider returned, on the thread that ran it. Logs the latest
+     * query of the thread if the provider's query took longer than the threshold; a query
+     * answered without SQLite is not logged.
+     *
+     * @param database to explain the query with
+     * @param uri      the provider was queried for
+     * @param nanos    the provider's query took, including running the SQL
+     * @param rows     the query returned
+     */
+    void onQueryFinished(SQLiteDatabase database, Uri uri, long nanos, int rows) {
+        try {
+            String sql = mLastSql.get();
+            if (sql != null && nanos >= mThresholdNanos) {
+                log(database, uri, sql, nanos, rows);
+            }
+        } finally {
+            // The thread may run other work next, e.g. in a binder pool
+            mLastSql.remove();
+        }
+    }
+
+    /**
+     * Explains the slow query and keeps it.
+     */
+    private void log(SQLiteDatabase database, Uri uri, String sql, long nanos, int rows) {
+        String plan = explain(database, sql);
+        Log.w(LOG_TAG, "Slow query of " + uri.getPath() + ": " + nanos / 1000000 + " ms, "
+                + rows + " rows\n  " + sql + "\n  " + plan);
+
+        synchronized (this) {
+            mTimes[mNext] = System.currentTimeMillis();
+            mUris[mNext] = uri.getPath();
+            mSql[mNext] = sql;
+            mDurations[mNext] = nanos / 1000;
+            mRows[mNext] = rows;
+            mPlans[mNext] = plan;
+            mNext = (mNext + 1) % CAPACITY;
+            mSize = Math.min(mSize + 1, CAPACITY);
+        }
+    }
+
+    /**
+     * Returns the plan of the query, one step per line, or why it couldn't be explained.
+     */
+    private String explain(SQLiteDatabase database, String sql) {
+        Cursor cursor;
+        try {
+            cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        } catch (SQLiteException e) {
+            return "No plan: " + e.getMessage();
+        }
+        try {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (plan.length() != 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detailColumn));
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the slow queries kept, oldest first, see
+     * {@link EntryContract#METHOD_GET_SLOW_QUERIES} for the keys.
+     */
+    synchronized Bundle toBundle() {
+        long[] times = new long[mSize];
+        String[] uris = new String[mSize];
+        String[] sql = new String[mSize];
+        long[] durations = new long[mSize];
+        int[] rows = new int[mSize];
+        String[] plans = new String[mSize];
+        for (int i = 0; i < mSize; i++) {
+            int index = (mNext - mSize + i + CAPACITY) % CAPACITY;
+            times[i] = mTimes[index];
+            uris[i] = mUris[index];
+            sql[i] = mSql[index];
+            durations[i] = mDurations[index];
+            rows[i] = mRows[index];
+            plans[i] = mPlans[index];
+        }
+
+        Bundle queries = new Bundle();
+        queries.putLongArray(EntryContract.KEY_SLOW_QUERY_TIMES, times);
+        queries.putStringArray(EntryContract.KEY_SLOW_QUERY_URIS, uris);
+        queries.putStringArray(EntryContract.KEY_SLOW_QUERY_SQL, sql);
+        queries.putLongArray(EntryContract.KEY_SLOW_QUERY_DURATIONS, durations);
+        queries.putIntArray(EntryContract.KEY_SLOW_QUERY_ROWS, rows);
+        queries.putStringArray(EntryContract.KEY_SLOW_QUERY_PLANS, plans);
+        return queries;
+    }
+
+    /**
+     * Writes the slow queries kept, oldest first.
+     */
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Slow queries (from " + mThresholdNanos / 1000000 + " ms):");
+        for (int i = 0; i < mSize; i++) {
+            int index = (mNext - mSize + i + CAPACITY) % CAPACITY;
+            writer.println("  " + mUris[index] + ": " + mDurations[index] / 1000 + " ms, "
+                    + mRows[index] + " rows");
+            writer.println("    " + mSql[index]);
+            writer.println("    " + mPlans[index].replace("\n", "\n    "));
+        }
+    }
+}
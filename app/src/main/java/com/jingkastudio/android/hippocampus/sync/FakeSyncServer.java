@@ -0,0 +1,104 @@
+package com.jingkastudio.android.hippocampus.sync;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-process stand-in for a sync server, to try out and benchmark {@link SyncEngine} without a
+ * network. It keeps the latest record of every entry in memory, numbered in the order they were
+ * stored, and the pull cursor is the number of the last record returned.
+ *
+ * It can be made to fail a request with {@link #failAfter}, the way a dropped connection would.
+ */
+public class FakeSyncServer implements SyncRemote {
+
+    /** The latest record of each entry, by the number it was stored under */
+    private final TreeMap<Long, JSONObject> mRecords = new TreeMap<>();
+
+    /** Number each entry's latest record is stored under, by UUID */
+    private final Map<String, Long> mNumbers = new HashMap<>();
+
+    /** Number of the last record stored */
+    private long mLastNumber;
+
+    /** Number of requests to serve before failing one, -1 to never fail */
+    private int mRequestsBeforeFailure = -1;
+
+    @Override
+    public synchronized void push(byte[] payload) throws IOException {
+        checkFailure();
+        try {
+            JSONArray records = SyncEngine.decode(payload).getJSONArray(SyncEngine.JSON_RECORDS);
+            for (int i = 0; i < records.length(); i++) {
+                store(records.getJSONObject(i));
+            }
+        } catch (JSONException e) {
+            throw new IOException("Malformed records", e);
+        }
+    }
+
+    /**
+     * Stores the record, unless the record stored for its entry is as new.
+     */
+    private void store(JSONObject record) throws JSONException {
+        String uuid = record.getString(DailyEntry.COLUMN_UUID);
+        Long number = mNumbers.get(uuid);
+        if (number != null) {
+            long storedModified = mRecords.get(number).getLong(DailyEntry.COLUMN_MODIFIED);
+            if (storedModified >= record.getLong(DailyEntry.COLUMN_MODIFIED)) {
+                return;
+            }
+            mRecords.remove(number);
+        }
+        mLastNumber++;
+        mRecords.put(mLastNumber, record);
+        mNumbers.put(uuid, mLastNumber);
+    }
+
+    @Override
+    public synchronized byte[] pull(String cursor, int limit) throws IOException {
+        checkFailure();
+        long after = cursor == null ? 0 : Long.parseLong(cursor);
+        JSONArray records = new JSONArray();
+        for (Map.Entry<Long, JSONObject> record : mRecords.tailMap(after, false).entrySet()) {
+            if (records.length() == limit) {
+                break;
+            }
+            records.put(record.getValue());
+            after = record.getKey();
+        }
+        return SyncEngine.encode(records, String.valueOf(after));
+    }
+
+    /**
+     * Makes the request after the given number of further requests fail, once.
+     */
+    public synchronized void failAfter(int requests) {
+        mRequestsBeforeFailure = requests;
+    }
+
+    /**
+     * Returns the number of entries stored, deleted ones included.
+     */
+    public synchronized int size() {
+        return mRecords.size();
+    }
+
+    private void checkFailure() throws IOException {
+        if (mRequestsBeforeFailure == 0) {
+            mRequestsBeforeFailure = -1;
+            throw new IOException("Connection dropped");
+        }
+        if (mRequestsBeforeFailure > 0) {
+            mRequestsBeforeFailure--;
+        }
+    }
+}
@@ -0,0 +1,577 @@
+package com.jingkastudio.android.hippocampus.sync;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.jingkastudio.android.hippocampus.data.EntryContract;
+import com.jingkastudio.android.hippocampus.data.EntryContract.ChangeEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Syncs the journal with a {@link SyncRemote}: pushes the entries that changed here since the
+ * last sync, then pulls the entries that changed on the remote. The changes to push are read
+ * from the log of changes of the provider (see {@link ChangeEntry}), so a sync costs about the
+ * number of entries edited since the last one, not the size of the journal. Only the very first
+ * sync pushes every entry.
+ *
+ * Entries are matched by their {@link DailyEntry#COLUMN_UUID}. A conflict is resolved per entry:
+ * the version with the later {@link DailyEntry#COLUMN_MODIFIED} time wins, here as well as on
+ * the remote, and a deletion counts as a version made at the time of the deletion, which the log
+ * of changes keeps later than the last modification of the entry. Entries pulled from the remote
+ * show up in the log of changes as well; they are recognized by their
+ * {@link DailyEntry#COLUMN_SYNCED_MODIFIED} and not pushed back. Deletions pulled from the remote
+ * are pushed back once, with the version they were pulled with, so the remote keeps what it has;
+ * a later edit made on another device meanwhile still wins over them. Once pushed, the changes
+ * are acknowledged to the provider (see {@link EntryContract#METHOD_ACKNOWLEDGE_CHANGES}), which
+ * then stops keeping the deletions.
+ *
+ * A pulled record the provider could not store, like one without a title, fails the sync with an
+ * IOException before any record of its batch is written.
+ *
+ * Both directions go in batches of {@link #BATCH_SIZE} entries. The progress is stored in the
+ * given preferences after every batch, so a sync that failed halfway resumes with the batch
+ * that failed. Must be called from a background thread.
+ */
+public final class SyncEngine {
+
+    /** Number of entries per request to the remote */
+    static final int BATCH_SIZE = 100;
+
+    /** Keys of the records in the payloads, besides the columns of the entries */
+    static final String JSON_RECORDS = "records";
+    static final String JSON_CURSOR = "cursor";
+    static final String JSON_DELETED = "deleted";
+
+    /**
+     * Keys of the progress in the preferences: the highest sequence number of the log of changes
+     * that was pushed, -1 before the first sync has pushed all entries; the sequence number the
+     * first push started at, and the id of the last entry it pushed; and the cursor of the pulls
+     */
+    private static final String KEY_PUSHED_SEQUENCE = "pushed_sequence";
+    private static final String KEY_FULL_PUSH_SEQUENCE = "full_push_sequence";
+    private static final String KEY_FULL_PUSH_LAST_ID = "full_push_last_id";
+    private static final String KEY_PULL_CURSOR = "pull_cursor";
+
+    /** The columns of an entry that are synced; the UUID first */
+    private static final String[] RECORD_COLUMNS = {
+            DailyEntry.COLUMN_UUID,
+            DailyEntry.COLUMN_TITLE,
+            DailyEntry.COLUMN_BODY,
+            DailyEntry.COLUMN_TAG,
+            DailyEntry.COLUMN_DATE,
+            DailyEntry.COLUMN_CREATED,
+            DailyEntry.COLUMN_MODIFIED };
+
+    /** Columns read from the log of changes */
+    private static final String[] CHANGE_COLUMNS = {
+            ChangeEntry._ID,
+            ChangeEntry.COLUMN_ENTRY_ID,
+            ChangeEntry.COLUMN_ENTRY_UUID,
+            ChangeEntry.COLUMN_CHANGE,
+            ChangeEntry.COLUMN_TIME };
+
+    private final ContentProvider mProvider;
+    private final SyncRemote mRemote;
+    private final SharedPreferences mState;
+
+    /** Counts of the sync under way */
+    private int mPushed;
+    private int mPulled;
+    private long mBytesSent;
+    private long mBytesReceived;
+
+    /**
+     * The outcome of a {@link #sync}.
+     */
+    public static final class Result {
+
+        private final int mPushed;
+        private final int mPulled;
+        private final long mBytesSent;
+        private final long mBytesReceived;
+
+        private Result(int pushed, int pulled, long bytesSent, long bytesReceived) {
+            mPushed = pushed;
+            mPulled = pulled;
+            mBytesSent = bytesSent;
+            mBytesReceived = bytesReceived;
+        }
+
+        /** Returns the number of entries and deletions sent to the remote */
+        public int getPushedCount() {
+            return mPushed;
+        }
+
+        /** Returns the number of entries written or deleted here from the remote */
+        public int getPulledCount() {
+            return mPulled;
+        }
+
+        /** Returns the number of compressed bytes sent to the remote */
+        public long getBytesSent() {
+            return mBytesSent;
+        }
+
+        /** Returns the number of compressed bytes received from the remote */
+        public long getBytesReceived() {
+            return mBytesReceived;
+        }
+    }
+
+    /**
+     * Constructs a new instance of {@link SyncEngine}.
+     *
+     * @param provider of the entries, e.g. from
+     *                 {@link android.content.ContentProviderClient#getLocalContentProvider}
+     * @param remote   to sync with
+     * @param state    where the progress of the syncs with this remote is kept
+     */
+    public SyncEngine(ContentProvider provider, SyncRemote remote, SharedPreferences state) {
+        mProvider = provider;
+        mRemote = remote;
+        mState = state;
+    }
+
+    /**
+     * Pushes the entries changed here, then pulls the entries changed on the remote.
+     *
+     * @throws IOException           if the remote failed; the batches before are kept
+     * @throws IllegalStateException if existing entries are still waiting for their UUID after
+     *                               an upgrade; try again later
+     */
+    public synchronized Result sync() throws IOException {
+        mPushed = 0;
+        mPulled = 0;
+        mBytesSent = 0;
+        mBytesReceived = 0;
+
+        if (hasEntriesWithoutUuid()) {
+            throw new IllegalStateException("Entries are still being assigned UUIDs");
+        }
+        if (mState.getLong(KEY_PUSHED_SEQUENCE, -1) == -1) {
+            pushAllEntries();
+        }
+        pushChanges();
+
+        // The remote has the deletions now; the provider may drop them from its log
+        mProvider.call(EntryContract.METHOD_ACKNOWLEDGE_CHANGES,
+                String.valueOf(mState.getLong(KEY_PUSHED_SEQUENCE, 0)), null);
+        pull();
+        return new Result(mPushed, mPulled, mBytesSent, mBytesReceived);
+    }
+
+    /**
+     * Pushes every entry, for the first sync. The changes made meanwhile are pushed afterwards
+     * from the log of changes.
+     */
+    private void pushAllEntries() throws IOException {
+        long startSequence = mState.getLong(KEY_FULL_PUSH_SEQUENCE, -1);
+        if (startSequence == -1) {
+            startSequence = latestSequence();
+            mState.edit()
+                    .putLong(KEY_FULL_PUSH_SEQUENCE, startSequence)
+                    .putLong(KEY_FULL_PUSH_LAST_ID, -1)
+                    .commit();
+        }
+
+        long lastId = mState.getLong(KEY_FULL_PUSH_LAST_ID, -1);
+        while (true) {
+            Cursor cursor = mProvider.query(
+                    DailyEntry.buildPageUri(DailyEntry.CONTENT_URI, lastId, BATCH_SIZE),
+                    new String[] { DailyEntry._ID }, null, null, null);
+            JSONArray records = new JSONArray();
+            try {
+                if (cursor.getCount() == 0) {
+                    break;
+                }
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    JSONObject record = readRecord(lastId);
+                    if (record != null) {
+                        records.put(record);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            push(records);
+            mState.edit().putLong(KEY_FULL_PUSH_LAST_ID, lastId).commit();
+        }
+
+        mState.edit()
+                .putLong(KEY_PUSHED_SEQUENCE, startSequence)
+                .remove(KEY_FULL_PUSH_SEQUENCE)
+                .remove(KEY_FULL_PUSH_LAST_ID)
+                .commit();
+    }
+
+    /**
+     * Pushes the entries changed since the last push, a batch of changes at a time.
+     */
+    private void pushChanges() throws IOException {
+        long sequence = mState.getLong(KEY_PUSHED_SEQUENCE, 0);
+        while (true) {
+            // The latest change of each entry in the batch, in order
+            Map<String, Object[]> changes = new LinkedHashMap<>();
+            Cursor cursor = mProvider.query(ChangeEntry.buildSinceUri(sequence, BATCH_SIZE),
+                    CHANGE_COLUMNS, null, null, null);
+            try {
+                if (cursor.getCount() == 0) {
+                    break;
+                }
+                while (cursor.moveToNext()) {
+                    sequence = cursor.getLong(0);
+                    String uuid = cursor.getString(2);
+                    if (uuid == null) {
+                        // Changed before it had a UUID; the first push covered it
+                        continue;
+                    }
+                    changes.remove(uuid);
+                    changes.put(uuid, new Object[] {
+                            cursor.getLong(1), cursor.getString(3), cursor.getLong(4) });
+                }
+            } finally {
+                cursor.close();
+            }
+
+            JSONArray records = new JSONArray();
+            for (Map.Entry<String, Object[]> change : changes.entrySet()) {
+                Object[] values = change.getValue();
+                JSONObject record;
+                if (DailyEntry.CHANGE_DELETE.equals(values[1])) {
+                    record = tombstoneOf(change.getKey(), (Long) values[2]);
+                } else {
+                    // Null if the entry was deleted meanwhile, its deletion comes in a later
+                    // batch, or if the change was pulled from the remote
+                    record = readRecord((Long) values[0]);
+                }
+                if (record != null) {
+                    records.put(record);
+                }
+            }
+            push(records);
+            mState.edit().putLong(KEY_PUSHED_SEQUENCE, sequence).commit();
+        }
+    }
+
+    /**
+     * Pulls the entries changed on the remote since the last pull, a batch at a time, and writes
+     * each batch here in one transaction.
+     */
+    private void pull() throws IOException {
+        String cursor = mState.getString(KEY_PULL_CURSOR, null);
+        while (true) {
+            byte[] payload = mRemote.pull(cursor, BATCH_SIZE);
+            mBytesReceived += payload.length;
+            JSONObject response = decode(payload);
+            JSONArray records;
+            try {
+                records = response.getJSONArray(JSON_RECORDS);
+                cursor = response.getString(JSON_CURSOR);
+            } catch (JSONException e) {
+                throw new IOException("Malformed response", e);
+            }
+            if (records.length() == 0) {
+                break;
+            }
+            apply(records);
+            mState.edit().putString(KEY_PULL_CURSOR, cursor).commit();
+            if (records.length() < BATCH_SIZE) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the records here that are newer than the local versions of their entries.
+     */
+    private void apply(JSONArray records) throws IOException {
+        try {
+            // Check all the records of the batch, then read the local versions of their entries
+            // at once
+            String[] uuids = new String[records.length()];
+            for (int i = 0; i < uuids.length; i++) {
+                JSONObject record = records.getJSONObject(i);
+                checkRecord(record);
+                uuids[i] = record.getString(DailyEntry.COLUMN_UUID);
+            }
+            String[] placeholders = new String[uuids.length];
+            Arrays.fill(placeholders, "?");
+            Map<String, long[]> local = new HashMap<>();
+            Cursor cursor = mProvider.query(DailyEntry.CONTENT_URI, new String[] {
+                            DailyEntry.COLUMN_UUID, DailyEntry._ID, DailyEntry.COLUMN_MODIFIED },
+                    DailyEntry.COLUMN_UUID + " IN (" + TextUtils.join(",", placeholders) + ")",
+                    uuids, null);
+            try {
+                while (cursor.moveToNext()) {
+                    local.put(cursor.getString(0),
+                            new long[] { cursor.getLong(1), cursor.getLong(2) });
+                }
+            } finally {
+                cursor.close();
+            }
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            int pulled = 0;
+            for (int i = 0; i < records.length(); i++) {
+                JSONObject record = records.getJSONObject(i);
+                long modified = record.getLong(DailyEntry.COLUMN_MODIFIED);
+                long[] version = local.get(uuids[i]);
+                if (version != null && version[1] >= modified) {
+                    // What we have is as new, or newer and pushed next time
+                    continue;
+                }
+
+                if (record.optBoolean(JSON_DELETED)) {
+                    if (version == null) {
+                        // Never had it, or deleted here as well
+                        continue;
+                    }
+
+                    // Leave the version of the deletion for the log of changes, so it is pushed
+                    // back with the version the remote has
+                    ContentValues synced = new ContentValues();
+                    synced.put(DailyEntry.COLUMN_MODIFIED, version[1]);
+                    synced.put(DailyEntry.COLUMN_SYNCED_MODIFIED, modified);
+                    operations.add(ContentProviderOperation.newUpdate(
+                            ContentUris.withAppendedId(DailyEntry.CONTENT_URI, version[0]))
+                            .withValues(synced)
+                            .build());
+                    operations.add(ContentProviderOperation.newDelete(
+                            ContentUris.withAppendedId(DailyEntry.CONTENT_URI, version[0]))
+                            .build());
+                } else if (version == null) {
+                    operations.add(ContentProviderOperation.newInsert(DailyEntry.CONTENT_URI)
+                            .withValues(valuesOf(record, true))
+                            .build());
+                } else {
+                    operations.add(ContentProviderOperation.newUpdate(
+                            ContentUris.withAppendedId(DailyEntry.CONTENT_URI, version[0]))
+                            .withValues(valuesOf(record, false))
+                            .build());
+                }
+                pulled++;
+            }
+            if (!operations.isEmpty()) {
+                mProvider.applyBatch(operations);
+                mPulled += pulled;
+            }
+        } catch (JSONException e) {
+            throw new IOException("Malformed record", e);
+        } catch (IllegalArgumentException e) {
+            // Rejected by the provider; the batch was rolled back as a whole
+            throw new IOException("Cannot store the pulled records", e);
+        } catch (OperationApplicationException e) {
+            throw new IllegalStateException("Cannot write the pulled entries", e);
+        }
+    }
+
+    /**
+     * Checks that the record has what the provider needs to store it: a UUID and a version, and
+     * unless it is a deletion a title, day and creation time.
+     *
+     * @throws JSONException if the record lacks any of them
+     */
+    private static void checkRecord(JSONObject record) throws JSONException {
+        if (TextUtils.isEmpty(record.getString(DailyEntry.COLUMN_UUID))) {
+            throw new JSONException("Record without a UUID");
+        }
+        record.getLong(DailyEntry.COLUMN_MODIFIED);
+        if (record.optBoolean(JSON_DELETED)) {
+            return;
+        }
+        if (record.isNull(DailyEntry.COLUMN_TITLE)) {
+            throw new JSONException("Record without a title");
+        }
+        record.getLong(DailyEntry.COLUMN_DATE);
+        record.getLong(DailyEntry.COLUMN_CREATED);
+    }
+
+    /**
+     * Sends the records to the remote, unless there are none.
+     */
+    private void push(JSONArray records) throws IOException {
+        if (records.length() == 0) {
+            return;
+        }
+        byte[] payload = encode(records, null);
+        mRemote.push(payload);
+        mPushed += records.length();
+        mBytesSent += payload.length;
+    }
+
+    /**
+     * Returns the record of the entry with the given id, or null if there is no such entry or
+     * it is the version pulled from the remote. The entry is queried on its own, as lists don't
+     * return compressed bodies.
+     */
+    private JSONObject readRecord(long id) {
+        String[] columns = Arrays.copyOf(RECORD_COLUMNS, RECORD_COLUMNS.length + 1);
+        columns[RECORD_COLUMNS.length] = DailyEntry.COLUMN_SYNCED_MODIFIED;
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(DailyEntry.CONTENT_URI, id),
+                columns, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            int modifiedColumn = cursor.getColumnIndex(DailyEntry.COLUMN_MODIFIED);
+            if (!cursor.isNull(RECORD_COLUMNS.length)
+                    && cursor.getLong(RECORD_COLUMNS.length) == cursor.getLong(modifiedColumn)) {
+                return null;
+            }
+            JSONObject record = new JSONObject();
+            for (int i = 0; i < RECORD_COLUMNS.length; i++) {
+                if (cursor.isNull(i)) {
+                    continue;
+                }
+                if (cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER) {
+                    record.put(RECORD_COLUMNS[i], cursor.getLong(i));
+                } else {
+                    record.put(RECORD_COLUMNS[i], cursor.getString(i));
+                }
+            }
+            return record;
+        } catch (JSONException e) {
+            // Only thrown for numbers that are not finite
+            throw new IllegalStateException(e);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the record of a deleted entry.
+     */
+    private static JSONObject tombstoneOf(String uuid, long time) {
+        JSONObject record = new JSONObject();
+        try {
+            record.put(DailyEntry.COLUMN_UUID, uuid);
+            record.put(DailyEntry.COLUMN_MODIFIED, time);
+            record.put(JSON_DELETED, true);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return record;
+    }
+
+    /**
+     * Returns the values to write for a record.
+     *
+     * @param withUuid whether the values are for an insert, and hold the UUID
+     */
+    private static ContentValues valuesOf(JSONObject record, boolean withUuid)
+            throws JSONException {
+        ContentValues values = new ContentValues();
+        for (String column : RECORD_COLUMNS) {
+            if (column.equals(DailyEntry.COLUMN_UUID) && !withUuid) {
+                continue;
+            }
+            if (!record.has(column)) {
+                values.putNull(column);
+            } else if (column.equals(DailyEntry.COLUMN_MODIFIED)) {
+                // Keep the remote's time, and mark this version as the one pulled
+                values.put(column, record.getLong(column));
+                values.put(DailyEntry.COLUMN_SYNCED_MODIFIED, record.getLong(column));
+            } else if (column.equals(DailyEntry.COLUMN_DATE)
+                    || column.equals(DailyEntry.COLUMN_CREATED)
+                    || column.equals(DailyEntry.COLUMN_MODIFIED)) {
+                values.put(column, record.getLong(column));
+            } else {
+                values.put(column, record.getString(column));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns whether some entries have no UUID yet.
+     */
+    private boolean hasEntriesWithoutUuid() {
+        Cursor cursor = mProvider.query(DailyEntry.buildPageUri(DailyEntry.CONTENT_URI, -1, 1),
+                new String[] { DailyEntry._ID }, DailyEntry.COLUMN_UUID + " IS NULL", null, null);
+        try {
+            return cursor.getCount() != 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the latest change, 0 if there is none.
+     */
+    private long latestSequence() {
+        Cursor cursor = mProvider.query(ChangeEntry.CONTENT_URI, new String[] { "MAX(" + ChangeEntry._ID + ")" },
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the gzipped payload with the records, and the cursor unless it is null.
+     */
+    static byte[] encode(JSONArray records, String cursor) throws IOException {
+        JSONObject payload = new JSONObject();
+        try {
+            payload.put(JSON_RECORDS, records);
+            payload.putOpt(JSON_CURSOR, cursor);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(bytes);
+        try {
+            out.write(payload.toString().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the JSON object of a gzipped payload.
+     */
+    static JSONObject decode(byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(payload));
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+        try {
+            return new JSONObject(bytes.toString("UTF-8"));
+        } catch (JSONException e) {
+            throw new IOException("Malformed payload", e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.jingkastudio.android.hippocampus.sync;
+
+import java.io.IOException;
+
+/**
+ * The other end of a sync: a server that keeps the latest version of every entry of the journal
+ * and hands out the versions that changed since a cursor. {@link SyncEngine} talks to it in
+ * batches; a batch that failed with an {@link IOException} is sent again on the next sync.
+ *
+ * Payloads are gzipped JSON objects, written and read by {@link SyncEngine#encode} and
+ * {@link SyncEngine#decode}: a "records" array with the entries, and for pulls the "cursor" to
+ * continue from. An entry is identified by its "uuid" and versioned by its "modified" time; a
+ * deleted entry has "deleted" set and no content.
+ */
+public interface SyncRemote {
+
+    /**
+     * Stores the records of the payload. The server keeps the record of an entry only if it is
+     * newer than the one it has. Returns once the records are stored.
+     */
+    void push(byte[] payload) throws IOException;
+
+    /**
+     * Returns a payload with the records that were stored after the cursor, at most the given
+     * number, and the cursor to continue from.
+     *
+     * @param cursor from the previous pull, null to start from the first record
+     * @param limit  maximum number of records to return
+     */
+    byte[] pull(String cursor, int limit) throws IOException;
+}
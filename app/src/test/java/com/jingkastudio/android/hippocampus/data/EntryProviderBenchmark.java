@@ -0,0 +1,425 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.CrossProcessCursor;
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+
+import com.jingkastudio.android.hippocampus.BuildConfig;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+import com.jingkastudio.android.hippocampus.sync.FakeSyncServer;
+import com.jingkastudio.android.hippocampus.sync.SyncEngine;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Benchmarks of {@link EntryProvider} on the JVM, run by "./gradlew benchmark" and left out of
+ * the unit tests. The provider runs the same code as in the app, triggers and caches included,
+ * on the SQLite bundled with Robolectric, against databases of its own; the results are printed
+ * to the standard output. They compare changes to the provider with each other, not with a
+ * device, where {@link EntryBenchmark} measures the database itself.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class EntryProviderBenchmark {
+
+    /** Prefix of the databases and preferences of the first provider */
+    private static final String DEVICE_A = "benchmark_a";
+
+    /** Prefix of the databases and preferences of the second provider, in the sync benchmark */
+    private static final String DEVICE_B = "benchmark_b";
+
+    /** Name of the preferences the sync benchmark keeps the progress of a device in */
+    private static final String SYNC_STATE_NAME = "sync";
+
+    /** Name of the archive file the export benchmark writes, in the cache directory */
+    private static final String ARCHIVE_NAME = "hippo_benchmark.ndjson";
+
+    /** Sizes of the database the operations are measured at */
+    private static final int[] ENTRY_COUNTS = { 1000, 10000, 100000 };
+
+    /** Number of operations measured at each size */
+    private static final int OPERATION_COUNT = 500;
+
+    /** Number of entries per bulk insert when filling the database */
+    private static final int BULK_INSERT_SIZE = 500;
+
+    /** Number of full list reads measured at each size, as they read every entry */
+    private static final int LIST_READ_COUNT = 10;
+
+    /** Number of entries read per call by the {@link EntryContract#METHOD_GET_ENTRIES} benchmark */
+    private static final int ENTRY_READ_BATCH_SIZE = 20;
+
+    /** Number of entries edited between two syncs */
+    private static final int SYNC_EDIT_COUNT = 20;
+
+    /**
+     * Measures filling the database with bulk inserts, then single inserts, single entry
+     * queries, full list queries, updates and deletes of random entries.
+     */
+    @Test
+    public void providerOperations() {
+        for (int entryCount : ENTRY_COUNTS) {
+            print("Provider operations, " + entryCount + " entries:");
+            EntryProvider provider = TestProviders.open(RuntimeEnvironment.application, DEVICE_A);
+            try {
+                benchmarkProviderOperations(provider, entryCount);
+            } finally {
+                provider.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Measures reading single entries the way another process would: through a query, whose row
+     * is copied into a cursor window as it is for a cursor sent across processes, and through
+     * {@link EntryContract#METHOD_GET_ENTRY}, whose Bundle is written to a parcel and read back.
+     * Then {@link EntryContract#METHOD_GET_ENTRIES} for a few entries at once. Each reads its own
+     * random entries, so they find the cache of the provider about as warm.
+     */
+    @Test
+    public void entryReads() {
+        for (int entryCount : ENTRY_COUNTS) {
+            print("Single entry reads, " + entryCount + " entries:");
+            EntryProvider provider = TestProviders.open(RuntimeEnvironment.application, DEVICE_A);
+            try {
+                benchmarkEntryReads(provider, entryCount);
+            } finally {
+                provider.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Measures exporting the database to a file and importing the file into an empty database.
+     * The export writes the archive the way {@link EntryContract#EXPORT_URI} does, straight to
+     * the file, as the pipe the provider hands out needs the native file descriptors of a
+     * device. The heap in use after each is printed too; it should be about the same at every
+     * size, as both stream the entries in chunks.
+     */
+    @Test
+    public void archive() throws IOException {
+        Context context = RuntimeEnvironment.application;
+        File archive = new File(context.getCacheDir(), ARCHIVE_NAME);
+        try {
+            for (int entryCount : ENTRY_COUNTS) {
+                print("Export and import, " + entryCount + " entries:");
+                benchmarkArchive(context, archive, entryCount);
+            }
+        } finally {
+            archive.delete();
+        }
+    }
+
+    /**
+     * Measures syncing two devices through a {@link FakeSyncServer}: the first sync of a
+     * database, interrupted once and resumed, the first sync of an empty second device, and then
+     * a sync of both after a few edits. The syncs after the edits should cost about the same at
+     * every size.
+     */
+    @Test
+    public void sync() throws IOException {
+        for (int entryCount : ENTRY_COUNTS) {
+            print("Sync, " + entryCount + " entries:");
+            benchmarkSync(RuntimeEnvironment.application, entryCount);
+        }
+    }
+
+    private static void benchmarkProviderOperations(EntryProvider provider, int entryCount) {
+        LatencyRecorder bulkInserts = new LatencyRecorder("bulk insert of " + BULK_INSERT_SIZE);
+        bulkInsertEntries(provider, entryCount, bulkInserts);
+        print(bulkInserts.summary());
+
+        LatencyRecorder inserts = new LatencyRecorder("insert");
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            ContentValues values = EntryBenchmark.valuesOf(entryCount + i);
+            long start = System.nanoTime();
+            provider.insert(DailyEntry.CONTENT_URI, values);
+            inserts.record(System.nanoTime() - start);
+        }
+        print(inserts.summary());
+        int total = entryCount + OPERATION_COUNT;
+
+        // Ids are assigned in order from 1, so random ids up to the total all exist
+        Random random = new Random(0);
+        LatencyRecorder queries = new LatencyRecorder("query single entry");
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            Uri uri = ContentUris.withAppendedId(DailyEntry.CONTENT_URI, 1 + random.nextInt(total));
+            long start = System.nanoTime();
+            Cursor cursor = provider.query(uri, null, null, null, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+            queries.record(System.nanoTime() - start);
+        }
+        print(queries.summary());
+
+        LatencyRecorder lists = new LatencyRecorder("query full list");
+        String[] projection = {
+                DailyEntry._ID, DailyEntry.COLUMN_TITLE, DailyEntry.COLUMN_PREVIEW };
+        for (int i = 0; i < LIST_READ_COUNT; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = provider.query(DailyEntry.CONTENT_URI, projection, null, null,
+                    DailyEntry._ID);
+            try {
+                // Read the rows window by window, as a list scrolled to the end would
+                while (cursor.moveToNext()) {
+                    cursor.getString(2);
+                }
+            } finally {
+                cursor.close();
+            }
+            lists.record(System.nanoTime() - start);
+        }
+        print(lists.summary());
+
+        LatencyRecorder updates = new LatencyRecorder("update");
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            int id = 1 + random.nextInt(total);
+            ContentValues values = new ContentValues();
+            values.put(DailyEntry.COLUMN_TITLE, "Updated entry " + id);
+            values.put(DailyEntry.COLUMN_BODY, EntryBenchmark.bodyOf(id + total));
+            long start = System.nanoTime();
+            provider.update(ContentUris.withAppendedId(DailyEntry.CONTENT_URI, id), values,
+                    null, null);
+            updates.record(System.nanoTime() - start);
+        }
+        print(updates.summary());
+
+        // Delete distinct entries, so every delete finds its entry
+        LatencyRecorder deletes = new LatencyRecorder("delete");
+        int step = total / OPERATION_COUNT;
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            Uri uri = ContentUris.withAppendedId(DailyEntry.CONTENT_URI,
+                    1 + i * step + random.nextInt(step));
+            long start = System.nanoTime();
+            provider.delete(uri, null, null);
+            deletes.record(System.nanoTime() - start);
+        }
+        print(deletes.summary());
+    }
+
+    private static void benchmarkEntryReads(EntryProvider provider, int entryCount) {
+        bulkInsertEntries(provider, entryCount, new LatencyRecorder("fill"));
+
+        // Ids are assigned in order from 1, so random ids up to the count all exist
+        Random random = new Random(1);
+        LatencyRecorder queries = new LatencyRecorder("query and cursor window");
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            Uri uri = ContentUris.withAppendedId(DailyEntry.CONTENT_URI,
+                    1 + random.nextInt(entryCount));
+            long start = System.nanoTime();
+            Cursor cursor = provider.query(uri, null, null, null, null);
+            CursorWindow window = new CursorWindow(EntryProviderBenchmark.class.getSimpleName());
+            try {
+                // What the provider side does to send the cursor to another process
+                CrossProcessCursor crossProcessCursor = cursor instanceof CrossProcessCursor
+                        ? (CrossProcessCursor) cursor : new CrossProcessCursorWrapper(cursor);
+                crossProcessCursor.fillWindow(0, window);
+                window.getString(0, cursor.getColumnIndex(DailyEntry.COLUMN_BODY));
+            } finally {
+                window.close();
+                cursor.close();
+            }
+            queries.record(System.nanoTime() - start);
+        }
+        print(queries.summary());
+
+        random = new Random(2);
+        LatencyRecorder calls = new LatencyRecorder("getEntry and parcel");
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            String id = String.valueOf(1 + random.nextInt(entryCount));
+            long start = System.nanoTime();
+            Bundle entry = provider.call(EntryContract.METHOD_GET_ENTRY, id, null);
+            unparcel(entry).getString(DailyEntry.COLUMN_BODY);
+            calls.record(System.nanoTime() - start);
+        }
+        print(calls.summary());
+
+        random = new Random(3);
+        LatencyRecorder batches = new LatencyRecorder(
+                "getEntries of " + ENTRY_READ_BATCH_SIZE + " and parcel");
+        for (int i = 0; i < OPERATION_COUNT / ENTRY_READ_BATCH_SIZE; i++) {
+            long[] ids = new long[ENTRY_READ_BATCH_SIZE];
+            for (int j = 0; j < ids.length; j++) {
+                ids[j] = 1 + random.nextInt(entryCount);
+            }
+            Bundle extras = new Bundle();
+            extras.putLongArray(EntryContract.KEY_IDS, ids);
+            long start = System.nanoTime();
+            Bundle entries = provider.call(EntryContract.METHOD_GET_ENTRIES, null, extras);
+            unparcel(entries).getParcelableArrayList(EntryContract.KEY_ENTRIES);
+            batches.record(System.nanoTime() - start, ids.length);
+        }
+        print(batches.summary());
+    }
+
+    private static void benchmarkArchive(Context context, File archive, int entryCount)
+            throws IOException {
+        EntryProvider provider = TestProviders.open(context, DEVICE_A);
+        EntryDbHelper helper = new EntryDbHelper(TestProviders.deviceContext(context, DEVICE_A));
+        try {
+            bulkInsertEntries(provider, entryCount, new LatencyRecorder("fill"));
+
+            LatencyRecorder exports = new LatencyRecorder("export");
+            long start = System.nanoTime();
+            OutputStream out = new FileOutputStream(archive);
+            try {
+                EntryArchive.write(helper.getReadableDatabase(), out);
+            } finally {
+                out.close();
+            }
+            exports.record(System.nanoTime() - start, entryCount);
+            print(exports.summary() + ", " + archive.length() / 1024 + "KB, "
+                    + usedMemory() / 1024 + "KB heap used");
+        } finally {
+            helper.close();
+            provider.shutdown();
+        }
+
+        provider = TestProviders.open(context, DEVICE_A);
+        try {
+            LatencyRecorder imports = new LatencyRecorder("import");
+            Bundle extras = new Bundle();
+            extras.putParcelable(EntryContract.KEY_ARCHIVE,
+                    ParcelFileDescriptor.open(archive, ParcelFileDescriptor.MODE_READ_ONLY));
+            long start = System.nanoTime();
+            provider.call(EntryContract.METHOD_IMPORT_ENTRIES, null, extras);
+            imports.record(System.nanoTime() - start, entryCount);
+            print(imports.summary() + ", " + usedMemory() / 1024 + "KB heap used");
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    private static void benchmarkSync(Context context, int entryCount) throws IOException {
+        SharedPreferences stateA = TestProviders.deviceContext(context, DEVICE_A)
+                .getSharedPreferences(SYNC_STATE_NAME, Context.MODE_PRIVATE);
+        SharedPreferences stateB = TestProviders.deviceContext(context, DEVICE_B)
+                .getSharedPreferences(SYNC_STATE_NAME, Context.MODE_PRIVATE);
+        stateA.edit().clear().commit();
+        stateB.edit().clear().commit();
+        FakeSyncServer server = new FakeSyncServer();
+        EntryProvider providerA = TestProviders.open(context, DEVICE_A);
+        EntryProvider providerB = TestProviders.open(context, DEVICE_B);
+        try {
+            bulkInsertEntries(providerA, entryCount, new LatencyRecorder("fill"));
+            SyncEngine engineA = new SyncEngine(providerA, server, stateA);
+            SyncEngine engineB = new SyncEngine(providerB, server, stateB);
+
+            LatencyRecorder firstPush = new LatencyRecorder("first sync, interrupted once");
+            long start = System.nanoTime();
+            server.failAfter(3);
+            try {
+                engineA.sync();
+            } catch (IOException e) {
+                // Resumes after the batches that went through
+            }
+            engineA.sync();
+            firstPush.record(System.nanoTime() - start, entryCount);
+            print(firstPush.summary() + ", " + server.size() + " entries on the server");
+
+            LatencyRecorder firstPull = new LatencyRecorder("first sync of a second device");
+            start = System.nanoTime();
+            SyncEngine.Result result = engineB.sync();
+            firstPull.record(System.nanoTime() - start, entryCount);
+            print(firstPull.summary() + ", " + result.getPulledCount() + " pulled, "
+                    + result.getBytesReceived() / 1024 + "KB received");
+
+            Random random = new Random(0);
+            for (int i = 0; i < SYNC_EDIT_COUNT; i++) {
+                int id = 1 + random.nextInt(entryCount);
+                ContentValues values = new ContentValues();
+                values.put(DailyEntry.COLUMN_BODY, EntryBenchmark.bodyOf(id + entryCount));
+                providerA.update(ContentUris.withAppendedId(DailyEntry.CONTENT_URI, id), values,
+                        null, null);
+            }
+
+            LatencyRecorder push = new LatencyRecorder("sync after " + SYNC_EDIT_COUNT + " edits");
+            start = System.nanoTime();
+            result = engineA.sync();
+            push.record(System.nanoTime() - start);
+            print(push.summary() + ", " + result.getPushedCount() + " pushed, "
+                    + result.getBytesSent() / 1024 + "KB sent");
+
+            LatencyRecorder pull = new LatencyRecorder("sync of the second device");
+            start = System.nanoTime();
+            result = engineB.sync();
+            pull.record(System.nanoTime() - start);
+            print(pull.summary() + ", " + result.getPulledCount() + " pulled, "
+                    + result.getBytesReceived() / 1024 + "KB received");
+        } finally {
+            providerB.shutdown();
+            providerA.shutdown();
+        }
+    }
+
+    /**
+     * Fills the provider with the given number of generated entries, in bulk inserts of
+     * {@link #BULK_INSERT_SIZE}, and records their latency.
+     */
+    private static void bulkInsertEntries(EntryProvider provider, int entryCount,
+                                          LatencyRecorder recorder) {
+        for (int first = 0; first < entryCount; first += BULK_INSERT_SIZE) {
+            int count = Math.min(BULK_INSERT_SIZE, entryCount - first);
+            ContentValues[] values = new ContentValues[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = EntryBenchmark.valuesOf(first + i);
+            }
+            long start = System.nanoTime();
+            provider.bulkInsert(DailyEntry.CONTENT_URI, values);
+            recorder.record(System.nanoTime() - start, count);
+        }
+    }
+
+    /**
+     * Returns a copy of the Bundle written to a parcel and read back, as it arrives in another
+     * process.
+     */
+    private static Bundle unparcel(Bundle bundle) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            parcel.setDataPosition(0);
+            Bundle copy = parcel.readBundle(EntryProviderBenchmark.class.getClassLoader());
+            // Bundles are read lazily, on the first access
+            copy.size();
+            return copy;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the Java heap in use, after a garbage collection.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void print(String line) {
+        System.out.println(line);
+    }
+}
@@ -0,0 +1,149 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.jingkastudio.android.hippocampus.BuildConfig;
+import com.jingkastudio.android.hippocampus.data.EntryContract.ChangeEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DraftEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the previews {@link EntryProvider} stores for the catalog, deleting all entries,
+ * compacting the log of changes, and the log of slow queries.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class EntryProviderTest {
+
+    @Test
+    public void previewOfShortBodyIsTheBodyOnOneLine() {
+        assertNull(EntryProvider.previewOf(null));
+        assertEquals("Went to the market. Bought coffee.",
+                EntryProvider.previewOf("  Went to the market.\n\n\tBought  coffee.  "));
+    }
+
+    @Test
+    public void previewOfLongBodyFitsWithTheEllipsis() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < EntryProvider.PREVIEW_LENGTH; i++) {
+            body.append('a');
+        }
+        String preview = EntryProvider.previewOf(body.toString());
+        assertEquals(body.toString(), preview);
+
+        preview = EntryProvider.previewOf(body.append('b').toString());
+        assertEquals(EntryProvider.PREVIEW_LENGTH, preview.length());
+        assertTrue(preview.endsWith("a\u2026"));
+    }
+
+    @Test
+    public void previewIsNotCutInsideASurrogatePairOrAfterASpace() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < EntryProvider.PREVIEW_LENGTH - 2; i++) {
+            body.append('a');
+        }
+        // An emoji, two chars, across the cut
+        String preview = EntryProvider.previewOf(body + "\uD83D\uDE00 more text");
+        assertEquals(body + "\u2026", preview);
+
+        preview = EntryProvider.previewOf(body + " word and more text");
+        assertEquals(body + "\u2026", preview);
+    }
+
+    @Test
+    public void deleteAllEntriesClearsTheDrafts() {
+        EntryProvider provider = TestProviders.open(RuntimeEnvironment.application, "delete_all");
+        try {
+            ContentValues values = new ContentValues();
+            values.put(DailyEntry.COLUMN_TITLE, "Saved");
+            provider.insert(DailyEntry.CONTENT_URI, values);
+            values = new ContentValues();
+            values.put(DraftEntry.COLUMN_TITLE, "Unsaved");
+            provider.update(DraftEntry.buildDraftUri(DraftEntry.NEW_ENTRY_ID), values, null, null);
+
+            assertEquals(1, provider.delete(DailyEntry.CONTENT_URI, null, null));
+            Cursor cursor = provider.query(DraftEntry.buildDraftUri(DraftEntry.NEW_ENTRY_ID),
+                    null, null, null, null);
+            try {
+                assertFalse(cursor.moveToFirst());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void compactionKeepsTheLatestChangesAndUnacknowledgedDeletions() {
+        EntryProvider provider = TestProviders.open(RuntimeEnvironment.application, "compact");
+        ContentValues values = new ContentValues();
+        values.put(DailyEntry.COLUMN_TITLE, "Kept");
+        Uri kept = provider.insert(DailyEntry.CONTENT_URI, values);
+        for (int i = 0; i < 3; i++) {
+            values.put(DailyEntry.COLUMN_TITLE, "Kept " + i);
+            provider.update(kept, values, null, null);
+        }
+        Uri deleted = provider.insert(DailyEntry.CONTENT_URI, values);
+        provider.delete(deleted, null, null);
+        // Compact below, not in the background of the provider
+        provider.shutdown();
+
+        EntryDbHelper helper = new EntryDbHelper(
+                TestProviders.deviceContext(RuntimeEnvironment.application, "compact"));
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            long deletion = DatabaseUtils.longForQuery(db, "SELECT MAX(" + ChangeEntry._ID
+                    + ") FROM " + ChangeEntry.TABLE_NAME, null);
+            EntryDbHelper.compactChangeLog(db, deletion - 1);
+            assertEquals(2, DatabaseUtils.queryNumEntries(db, ChangeEntry.TABLE_NAME));
+            assertEquals(ContentUris.parseId(kept), DatabaseUtils.longForQuery(db, "SELECT "
+                    + ChangeEntry.COLUMN_ENTRY_ID + " FROM " + ChangeEntry.TABLE_NAME + " WHERE "
+                    + ChangeEntry.COLUMN_CHANGE + " = ?",
+                    new String[] { DailyEntry.CHANGE_UPDATE }));
+
+            EntryDbHelper.compactChangeLog(db, deletion);
+            assertEquals(1, DatabaseUtils.queryNumEntries(db, ChangeEntry.TABLE_NAME));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void slowQueryLogKeepsTheSqlTheProviderRan() {
+        EntryProvider provider = TestProviders.open(RuntimeEnvironment.application, "slow");
+        try {
+            provider.call(EntryContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+            provider.query(DailyEntry.buildDateUri(20170101), new String[] { DailyEntry._ID },
+                    null, null, null).close();
+
+            Bundle queries = provider.call(EntryContract.METHOD_GET_SLOW_QUERIES, null, null);
+            assertArrayEquals(new String[] { "SELECT " + DailyEntry._ID + " FROM "
+                            + DailyEntry.TABLE_NAME + " WHERE " + DailyEntry.COLUMN_DATE
+                            + "=? ORDER BY " + DailyEntry._ID },
+                    queries.getStringArray(EntryContract.KEY_SLOW_QUERY_SQL));
+            assertTrue(queries.getStringArray(EntryContract.KEY_SLOW_QUERY_PLANS)[0]
+                    .contains("USING COVERING INDEX"));
+        } finally {
+            provider.shutdown();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.jingkastudio.android.hippocampus.BuildConfig;
+import com.jingkastudio.android.hippocampus.data.EntryContract.ChangeEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+import com.jingkastudio.android.hippocampus.data.EntryContract.TagEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests how the tags of the entries are parsed, and found again through
+ * {@link DailyEntry#buildTagUri}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class EntryTagsTest {
+
+    private EntryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = TestProviders.open(RuntimeEnvironment.application, "tags");
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void parseDropsEmptyTagsAndDuplicatesInAnyAsciiCase() {
+        assertEquals(Arrays.asList("Work", "family"),
+                EntryTags.parse(" Work, family,, WORK ,work"));
+    }
+
+    @Test
+    public void parseKeepsTagsThatDifferInTheCaseOfOtherLetters() {
+        // The NOCASE collation of the tags table only folds ASCII letters
+        String tags = "\u00C9t\u00E9, \u00E9t\u00E9";
+        assertEquals(Arrays.asList("\u00C9t\u00E9", "\u00E9t\u00E9"), EntryTags.parse(tags));
+
+        insertTagged(tags);
+        assertEquals(2, count(TagEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void tagUriMatchesTagsWithSlashesAndAnyAsciiCase() {
+        insertTagged("Home/Garden");
+        assertEquals(1, count(DailyEntry.buildTagUri("home/garden")));
+    }
+
+    @Test
+    public void backfillRewritesTheTagsWithoutLoggingChanges() {
+        insertTagged("Work, work");
+        // Keep the compaction of the log by the provider out of the count
+        mProvider.shutdown();
+        EntryDbHelper helper = new EntryDbHelper(
+                TestProviders.deviceContext(RuntimeEnvironment.application, "tags"));
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.execSQL("UPDATE " + DailyEntry.TABLE_NAME + " SET " + DailyEntry.COLUMN_TAG
+                    + " = 'Work, work'");
+            long changes = DatabaseUtils.queryNumEntries(db, ChangeEntry.TABLE_NAME);
+
+            SchemaBackfills.register(db, SchemaBackfills.TAGS);
+            while (SchemaBackfills.runBatch(db)) {
+                // Until done
+            }
+            assertEquals("Work", DatabaseUtils.stringForQuery(db, "SELECT "
+                    + DailyEntry.COLUMN_TAG + " FROM " + DailyEntry.TABLE_NAME, null));
+            assertEquals(changes, DatabaseUtils.queryNumEntries(db, ChangeEntry.TABLE_NAME));
+        } finally {
+            helper.close();
+        }
+    }
+
+    private void insertTagged(String tags) {
+        ContentValues values = new ContentValues();
+        values.put(DailyEntry.COLUMN_TITLE, "Tagged");
+        values.put(DailyEntry.COLUMN_TAG, tags);
+        mProvider.insert(DailyEntry.CONTENT_URI, values);
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.jingkastudio.android.hippocampus.data;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+/**
+ * Sets up {@link EntryProvider}s for tests, each on a database and preferences of its own, the
+ * way they would be on separate devices.
+ */
+public final class TestProviders {
+
+    // To prevent someone from accidentally instantiating the test providers class
+    private TestProviders() {}
+
+    /**
+     * Returns a provider whose database files and preferences are the ones of the app, with the
+     * given prefix added to their names. Files left by a previous provider with the same prefix
+     * are deleted first. Call {@link EntryProvider#shutdown} when done with it.
+     *
+     * @param context of the app
+     * @param prefix  that keeps the files of this provider apart from the others
+     */
+    public static EntryProvider open(Context context, String prefix) {
+        Context deviceContext = deviceContext(context, prefix);
+        deviceContext.deleteDatabase(EntryDbHelper.DATABASE_NAME);
+        EntryProvider provider = new EntryProvider();
+        provider.attachInfo(deviceContext, null);
+        return provider;
+    }
+
+    /**
+     * Returns the context a provider opened with the given prefix runs in, e.g. to open its
+     * database or preferences directly.
+     *
+     * @param context of the app
+     * @param prefix  the provider was opened with
+     */
+    public static Context deviceContext(Context context, String prefix) {
+        return new PrefixedContext(context, prefix);
+    }
+
+    /**
+     * Context that adds a prefix to the names of the databases and preferences it opens.
+     */
+    private static final class PrefixedContext extends ContextWrapper {
+
+        private final String mPrefix;
+
+        PrefixedContext(Context base, String prefix) {
+            super(base);
+            mPrefix = prefix + "_";
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                                   SQLiteDatabase.CursorFactory factory) {
+            return super.openOrCreateDatabase(mPrefix + name, mode, factory);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                                   SQLiteDatabase.CursorFactory factory,
+                                                   DatabaseErrorHandler errorHandler) {
+            return super.openOrCreateDatabase(mPrefix + name, mode, factory, errorHandler);
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return super.getDatabasePath(mPrefix + name);
+        }
+
+        @Override
+        public boolean deleteDatabase(String name) {
+            return super.deleteDatabase(mPrefix + name);
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            return super.getSharedPreferences(mPrefix + name, mode);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.jingkastudio.android.hippocampus.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.jingkastudio.android.hippocampus.BuildConfig;
+import com.jingkastudio.android.hippocampus.data.EntryContract.DailyEntry;
+import com.jingkastudio.android.hippocampus.data.EntryProvider;
+import com.jingkastudio.android.hippocampus.data.TestProviders;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests how {@link SyncEngine} resolves conflicts. Three devices, each a provider on a database
+ * of its own, sync through a {@link FakeSyncServer}; every test checks that the entries ended up
+ * the same on all of them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SyncEngineTest {
+
+    /** Names of the devices, which keep their databases and sync progress apart */
+    private static final String[] DEVICE_NAMES = { "device_a", "device_b", "device_c" };
+
+    /** Pause that makes the next write get a later time, in milliseconds */
+    private static final long TICK_MS = 10;
+
+    private final FakeSyncServer mServer = new FakeSyncServer();
+    private final EntryProvider[] mProviders = new EntryProvider[DEVICE_NAMES.length];
+    private final SyncEngine[] mEngines = new SyncEngine[DEVICE_NAMES.length];
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        for (int i = 0; i < DEVICE_NAMES.length; i++) {
+            SharedPreferences state = context.getSharedPreferences(DEVICE_NAMES[i],
+                    Context.MODE_PRIVATE);
+            state.edit().clear().commit();
+            mProviders[i] = TestProviders.open(context, DEVICE_NAMES[i]);
+            mEngines[i] = new SyncEngine(mProviders[i], mServer, state);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (EntryProvider provider : mProviders) {
+            if (provider != null) {
+                provider.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Two devices edit the same entry; after syncing, both have the edit made last, whichever
+     * device syncs first.
+     */
+    @Test
+    public void laterEditWins() throws IOException {
+        String uuid = insertAndSyncAll("Original");
+        long now = System.currentTimeMillis();
+        edit(1, uuid, "Later", now + 2000);
+        edit(0, uuid, "Earlier", now + 1000);
+
+        // The first device pulls the later edit on the second round
+        syncAll();
+        syncAll();
+        assertTitleOnAll(uuid, "Later");
+    }
+
+    /**
+     * An entry deleted on one device is deleted on all of them, and a device pulling the deletion
+     * doesn't bring it back.
+     */
+    @Test
+    public void deletionReachesEveryDevice() throws IOException {
+        String uuid = insertAndSyncAll("Deleted");
+        delete(0, uuid);
+        syncAll();
+        syncAll();
+        assertTitleOnAll(uuid, null);
+    }
+
+    /**
+     * An entry edited and deleted right after, in the same millisecond, is deleted everywhere:
+     * the deletion is versioned after the edit.
+     */
+    @Test
+    public void deleteRightAfterEditWins() throws IOException {
+        String uuid = insertAndSyncAll("Edited");
+        edit(0, uuid, "Edited again", System.currentTimeMillis());
+        delete(0, uuid);
+        syncAll();
+        assertTitleOnAll(uuid, null);
+    }
+
+    /**
+     * A device edits an entry after another one deleted it, while a third device pulls the
+     * deletion. The edit is the later version, so it wins on every device, and the deletion the
+     * third device pushes back doesn't replace it on the remote.
+     */
+    @Test
+    public void editAfterPulledDeletionWins() throws IOException {
+        String uuid = insertAndSyncAll("Contested");
+        delete(0, uuid);
+        mEngines[0].sync();
+        SystemClock.sleep(TICK_MS);
+        edit(1, uuid, "Edited after the deletion", System.currentTimeMillis());
+        SystemClock.sleep(TICK_MS);
+
+        // The third device pulls the deletion, and deletes its copy, after the edit was made
+        mEngines[2].sync();
+        mEngines[1].sync();
+        syncAll();
+        syncAll();
+        assertTitleOnAll(uuid, "Edited after the deletion");
+    }
+
+    /**
+     * A pulled record without a title fails the sync with an IOException, and stores nothing.
+     */
+    @Test
+    public void recordWithoutTitleFailsTheSync() throws Exception {
+        JSONObject record = new JSONObject();
+        record.put(DailyEntry.COLUMN_UUID, "3f1c7c1e-0000-4000-8000-000000000001");
+        record.put(DailyEntry.COLUMN_MODIFIED, System.currentTimeMillis());
+        record.put(DailyEntry.COLUMN_DATE, DailyEntry.toDateKey(2017, 1, 1));
+        record.put(DailyEntry.COLUMN_CREATED, System.currentTimeMillis());
+        mServer.push(SyncEngine.encode(new JSONArray().put(record), null));
+
+        try {
+            mEngines[0].sync();
+            fail("The record without a title was accepted");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertNull(titleOf(0, record.getString(DailyEntry.COLUMN_UUID)));
+    }
+
+    /**
+     * Inserts an entry on the first device and syncs it to all. Returns its UUID.
+     */
+    private String insertAndSyncAll(String title) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(DailyEntry.COLUMN_TITLE, title);
+        values.put(DailyEntry.COLUMN_BODY, "Body of " + title);
+        Uri uri = mProviders[0].insert(DailyEntry.CONTENT_URI, values);
+        String uuid = uuidOf(0, ContentUris.parseId(uri));
+        syncAll();
+        assertTitleOnAll(uuid, title);
+        SystemClock.sleep(TICK_MS);
+        return uuid;
+    }
+
+    /**
+     * Syncs every device once, in order.
+     */
+    private void syncAll() throws IOException {
+        for (SyncEngine engine : mEngines) {
+            engine.sync();
+        }
+    }
+
+    private void edit(int device, String uuid, String title, long modified) {
+        ContentValues values = new ContentValues();
+        values.put(DailyEntry.COLUMN_TITLE, title);
+        values.put(DailyEntry.COLUMN_MODIFIED, modified);
+        assertEquals(1, mProviders[device].update(
+                ContentUris.withAppendedId(DailyEntry.CONTENT_URI, idOf(device, uuid)),
+                values, null, null));
+    }
+
+    private void delete(int device, String uuid) {
+        assertEquals(1, mProviders[device].delete(
+                ContentUris.withAppendedId(DailyEntry.CONTENT_URI, idOf(device, uuid)),
+                null, null));
+    }
+
+    /**
+     * Checks that every device has the entry with the given title, or none if the title is null.
+     */
+    private void assertTitleOnAll(String uuid, String title) {
+        for (int i = 0; i < mProviders.length; i++) {
+            assertEquals("Title on " + DEVICE_NAMES[i], title, titleOf(i, uuid));
+        }
+    }
+
+    private String uuidOf(int device, long id) {
+        Cursor cursor = mProviders[device].query(
+                ContentUris.withAppendedId(DailyEntry.CONTENT_URI, id),
+                new String[] { DailyEntry.COLUMN_UUID }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long idOf(int device, String uuid) {
+        Cursor cursor = queryByUuid(device, uuid, DailyEntry._ID);
+        try {
+            if (!cursor.moveToFirst()) {
+                fail(DEVICE_NAMES[device] + " has no entry " + uuid);
+            }
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String titleOf(int device, String uuid) {
+        Cursor cursor = queryByUuid(device, uuid, DailyEntry.COLUMN_TITLE);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor queryByUuid(int device, String uuid, String column) {
+        return mProviders[device].query(DailyEntry.CONTENT_URI, new String[] { column },
+                DailyEntry.COLUMN_UUID + "=?", new String[] { uuid }, null);
+    }
+}
@@ -0,0 +1,36 @@
+#!/bin/bash
+#
+# Measures cold starts of the app on the connected device: force-stops it, launches the
+# catalog and waits for its first frame, a number of times in a row. Prints the time to the
+# first frame of every run, the startup phases the app logs (see StartupTimer), and the median.
+#
+# Usage: scripts/cold_start.sh [runs]
+#
+# Install the app first, e.g. with "./gradlew installDebug". The first launch after an install
+# or upgrade also creates or upgrades the database; run once more to leave it out.
+
+set -e
+
+PACKAGE=com.jingkastudio.android.hippocampus
+ACTIVITY=$PACKAGE/.CatalogActivity
+RUNS=${1:-10}
+
+times=()
+for run in $(seq 1 "$RUNS"); do
+    adb shell am force-stop "$PACKAGE"
+    # Let the device settle, so the runs don't compete with the teardown of the last one
+    sleep 2
+    adb logcat -c
+
+    total=$(adb shell am start -W -n "$ACTIVITY" | tr -d '\r' | awk '/^TotalTime:/ { print $2 }')
+    # The list is drawn shortly after the first frame
+    sleep 2
+
+    echo "Run $run: first frame after $total ms"
+    adb logcat -d -s StartupTimer:I ActivityManager:I | tr -d '\r' \
+        | sed -n -e 's/^.*StartupTimer: /    /p' -e 's/^.*\(Fully drawn .*\)$/    \1/p'
+    times+=("$total")
+done
+
+median=$(printf '%s\n' "${times[@]}" | sort -n | awk '{ t[NR] = $1 } END { print t[int((NR + 1) / 2)] }')
+echo "Median time to first frame over $RUNS runs: $median ms"